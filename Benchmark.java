@@ -0,0 +1,606 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+import java.io.*;
+import java.lang.management.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+// Client class that times the fast paths of the classifier against the original approaches
+//      on the bundled datasets. Pass the name of the benchmark to run, e.g. "java Benchmark csv"
+public class Benchmark {
+    public static final String[] DATA_FILES = {
+        "data/emails/train.csv", "data/emails/test.csv",
+        "data/federalist_papers/train.csv", "data/federalist_papers/test.csv"
+    };
+
+    // Number of untimed runs before the timed ones, so the JIT has compiled the code
+    public static final int WARMUP_RUNS = 5;
+    public static final int TIMED_RUNS = 10;
+
+    public static final String[] TREE_FILES = {
+        "trees/simple.txt", "trees/medium.txt", "trees/large.txt"
+    };
+    public static final String TREE_DATA_FILE = "data/emails/test.csv";
+
+    // Number of times a tree is loaded in each run of the load benchmark
+    public static final int LOADS_PER_RUN = 1000;
+
+    // Depth of the complete tree generated for the lazy benchmark, giving 2^(depth + 1) - 1 nodes
+    public static final int LAZY_TREE_DEPTH = 18;
+
+    // Shape of the forests trained by the forest benchmark
+    public static final int FOREST_TREES = 32;
+    public static final int FOREST_MAX_DEPTH = 12;
+
+    // Number of trees in the forest of the vote benchmark
+    public static final int VOTE_TREES = 100;
+
+    // Depths of the forests of VOTE_TREES shallow trees scored by the quick benchmark
+    public static final int[] QUICK_DEPTHS = {3, 6};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java Benchmark <csv|compile|slots|text|alloc|load|mapped"
+                               + "|lazy|layout|forest|vote|quick>");
+            return;
+        }
+        if (args[0].equals("csv")) {
+            benchmarkCsv();
+        } else if (args[0].equals("compile")) {
+            benchmarkCompile();
+        } else if (args[0].equals("slots")) {
+            benchmarkSlots();
+        } else if (args[0].equals("text")) {
+            benchmarkText();
+        } else if (args[0].equals("alloc")) {
+            benchmarkAllocation();
+        } else if (args[0].equals("load")) {
+            benchmarkLoad();
+        } else if (args[0].equals("mapped")) {
+            benchmarkMapped();
+        } else if (args[0].equals("lazy")) {
+            benchmarkLazy();
+        } else if (args[0].equals("layout")) {
+            benchmarkLayout();
+        } else if (args[0].equals("forest")) {
+            benchmarkForest();
+        } else if (args[0].equals("vote")) {
+            benchmarkVote();
+        } else if (args[0].equals("quick")) {
+            benchmarkQuick();
+        } else {
+            System.out.println("Unknown benchmark: " + args[0]);
+        }
+    }
+
+    // Times splitting every line of the data files with the CsvReader.COMMA regex against
+    //      parsing them with CsvReader.read and CsvReader.parallelStream
+    private static void benchmarkCsv() throws IOException {
+        for (String fileName : DATA_FILES) {
+            System.out.println(fileName);
+            time("  regex split", () -> {
+                Scanner sc = new Scanner(new File(fileName));
+                sc.nextLine();
+                int fields = 0;
+                while (sc.hasNextLine()) {
+                    fields += sc.nextLine().split(CsvReader.COMMA).length;
+                }
+                sc.close();
+                return fields;
+            });
+            time("  CsvReader.read", () -> {
+                int fields = 0;
+                for (List<String> row : CsvReader.read(fileName)) {
+                    fields += row.size();
+                }
+                return fields;
+            });
+            time("  CsvReader.parallelStream", () -> {
+                try (Stream<List<String>> rows = CsvReader.parallelStream(fileName)) {
+                    return rows.mapToInt(List::size).sum();
+                }
+            });
+        }
+    }
+
+    // Times classifying the emails test set with each saved tree through the Classifier's
+    //      node walk, the FlatTree array walk and the FlatTree compiled into a generated class
+    private static void benchmarkCompile() throws IOException {
+        List<TextBlock> data = new DataLoader(TREE_DATA_FILE, Client.LABEL_INDEX,
+                                              Client.CONTENT_INDEX).getData();
+        for (String treeFile : TREE_FILES) {
+            Classifier c = new Classifier(new Scanner(new File(treeFile)));
+            FlatTree flat = c.flatten();
+            FlatTree compiled = c.compile();
+            System.out.println(treeFile + " (" + flat.size() + " nodes, "
+                               + (compiled.isCompiled() ? "compiled" : "too big to compile")
+                               + ")");
+            time("  Classifier.classify", () -> {
+                long result = 0;
+                for (TextBlock input : data) {
+                    result += c.classify(input).hashCode();
+                }
+                return result;
+            });
+            time("  FlatTree.classify", () -> {
+                long result = 0;
+                for (TextBlock input : data) {
+                    result += flat.classify(input).hashCode();
+                }
+                return result;
+            });
+            time("  compiled FlatTree.classify", () -> {
+                long result = 0;
+                for (TextBlock input : data) {
+                    result += compiled.classify(input).hashCode();
+                }
+                return result;
+            });
+        }
+    }
+
+    // Times classifying the emails test set with each saved tree through the Classifier's
+    //      node walk, FlatTree.classify, which caches the features a path tests more than
+    //      once, and resolving every feature of the tree up front into a dense array
+    private static void benchmarkSlots() throws IOException {
+        List<TextBlock> data = new DataLoader(TREE_DATA_FILE, Client.LABEL_INDEX,
+                                              Client.CONTENT_INDEX).getData();
+        for (String treeFile : TREE_FILES) {
+            Classifier c = new Classifier(new Scanner(new File(treeFile)));
+            FlatTree flat = c.flatten();
+            double[] values = new double[flat.featureCount()];
+            System.out.println(treeFile + " (" + flat.size() + " nodes, "
+                               + flat.featureCount() + " features)");
+            time("  Classifier.classify", () -> {
+                long result = 0;
+                for (TextBlock input : data) {
+                    result += c.classify(input).hashCode();
+                }
+                return result;
+            });
+            time("  FlatTree.classify", () -> {
+                long result = 0;
+                for (TextBlock input : data) {
+                    result += flat.classify(input).hashCode();
+                }
+                return result;
+            });
+            time("  resolve + classifyCode", () -> {
+                long result = 0;
+                for (TextBlock input : data) {
+                    flat.resolve(input, values);
+                    result += flat.getLabel(flat.classifyCode(values)).hashCode();
+                }
+                return result;
+            });
+        }
+    }
+
+    // Times classifying the raw text of the emails test set with each saved tree by building
+    //      a TextBlock of every message against counting only the tree's words in the text
+    private static void benchmarkText() throws IOException {
+        List<String> texts = new ArrayList<>();
+        for (List<String> row : CsvReader.read(TREE_DATA_FILE)) {
+            texts.add(row.get(Client.CONTENT_INDEX));
+        }
+        for (String treeFile : TREE_FILES) {
+            FlatTree flat = new Classifier(new Scanner(new File(treeFile))).flatten();
+            System.out.println(treeFile + " (" + flat.featureCount() + " features)");
+            time("  TextBlock + classify", () -> {
+                long result = 0;
+                for (String text : texts) {
+                    result += flat.classify(new TextBlock(text, false)).hashCode();
+                }
+                return result;
+            });
+            time("  classify(CharSequence)", () -> {
+                long result = 0;
+                for (String text : texts) {
+                    result += flat.classify(text).hashCode();
+                }
+                return result;
+            });
+        }
+    }
+
+    // Measures how many bytes the current thread allocates per message while classifying the
+    //      emails test set with the large saved tree, building a TextBlock of every message
+    //      against Classifier.classify on the message's text, UTF-8 bytes and a direct buffer
+    //      holding the bytes
+    private static void benchmarkAllocation() throws IOException {
+        List<String> texts = new ArrayList<>();
+        for (List<String> row : CsvReader.read(TREE_DATA_FILE)) {
+            texts.add(row.get(Client.CONTENT_INDEX));
+        }
+        List<byte[]> encoded = new ArrayList<>();
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (String text : texts) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes).flip();
+            buffers.add(buffer);
+        }
+        Classifier c = new Classifier(new Scanner(new File(TREE_FILES[TREE_FILES.length - 1])));
+
+        allocation("  TextBlock + classify", texts.size(), () -> {
+            long result = 0;
+            for (String text : texts) {
+                result += c.classify(new TextBlock(text, false)).hashCode();
+            }
+            return result;
+        });
+        allocation("  classify(CharSequence)", texts.size(), () -> {
+            long result = 0;
+            for (String text : texts) {
+                result += c.classify(text).hashCode();
+            }
+            return result;
+        });
+        allocation("  classify(byte[])", texts.size(), () -> {
+            long result = 0;
+            for (byte[] bytes : encoded) {
+                result += c.classify(bytes).hashCode();
+            }
+            return result;
+        });
+        allocation("  classify(ByteBuffer)", texts.size(), () -> {
+            long result = 0;
+            for (ByteBuffer buffer : buffers) {
+                result += c.classify(buffer).hashCode();
+            }
+            return result;
+        });
+    }
+
+    // Times loading each saved tree from its text format against loading it from the binary
+    //      format, both from memory so only the parsing is timed
+    private static void benchmarkLoad() throws IOException {
+        for (String treeFile : TREE_FILES) {
+            String text = new String(Files.readAllBytes(Paths.get(treeFile)));
+            ByteArrayOutputStream binary = new ByteArrayOutputStream();
+            new Classifier(new Scanner(text)).saveBinary(binary);
+            byte[] bytes = binary.toByteArray();
+            System.out.println(treeFile + " (" + text.length() + " chars of text, "
+                               + bytes.length + " bytes of binary)");
+            time("  Classifier(Scanner)", () -> {
+                long result = 0;
+                for (int i = 0; i < LOADS_PER_RUN; i++) {
+                    result += new Classifier(new Scanner(text)).isFrozen() ? 1 : 0;
+                }
+                return result;
+            });
+            time("  Classifier(InputStream)", () -> {
+                long result = 0;
+                for (int i = 0; i < LOADS_PER_RUN; i++) {
+                    result += new Classifier(new ByteArrayInputStream(bytes)).isFrozen() ? 1 : 0;
+                }
+                return result;
+            });
+        }
+    }
+
+    // Times loading each saved tree from a binary model file and classifying the first message
+    //      of the emails test set, then classifying the whole test set, with a Classifier
+    //      against a MappedClassifier over the same file
+    private static void benchmarkMapped() throws IOException {
+        List<TextBlock> data = new DataLoader(TREE_DATA_FILE, Client.LABEL_INDEX,
+                                              Client.CONTENT_INDEX).getData();
+        for (String treeFile : TREE_FILES) {
+            Path modelFile = Files.createTempFile("model", ".bin");
+            try {
+                Classifier c = new Classifier(new Scanner(new File(treeFile)));
+                try (OutputStream output = Files.newOutputStream(modelFile)) {
+                    c.saveBinary(output);
+                }
+                MappedClassifier mapped = new MappedClassifier(modelFile.toString());
+                System.out.println(treeFile + " (" + Files.size(modelFile) + " bytes)");
+                time("  load + first classify", () -> {
+                    long result = 0;
+                    for (int i = 0; i < LOADS_PER_RUN; i++) {
+                        try (InputStream input = Files.newInputStream(modelFile)) {
+                            result += new Classifier(input).classify(data.get(0)).hashCode();
+                        }
+                    }
+                    return result;
+                });
+                time("  map + first classify", () -> {
+                    long result = 0;
+                    for (int i = 0; i < LOADS_PER_RUN; i++) {
+                        result += new MappedClassifier(modelFile.toString()).classify(data.get(0))
+                                                                            .hashCode();
+                    }
+                    return result;
+                });
+                time("  Classifier.classify", () -> {
+                    long result = 0;
+                    for (TextBlock input : data) {
+                        result += c.classify(input).hashCode();
+                    }
+                    return result;
+                });
+                time("  MappedClassifier.classify", () -> {
+                    long result = 0;
+                    for (TextBlock input : data) {
+                        result += mapped.classify(input).hashCode();
+                    }
+                    return result;
+                });
+            } finally {
+                Files.delete(modelFile);
+            }
+        }
+    }
+
+    // Times loading a generated model far larger than the saved trees from memory and
+    //      classifying the first message of the emails test set, with a Classifier that builds
+    //      every node up front against one that decodes nodes as they are reached, then times
+    //      classifying the whole test set once the lazy Classifier has decoded every node
+    private static void benchmarkLazy() throws IOException {
+        List<TextBlock> data = new DataLoader(TREE_DATA_FILE, Client.LABEL_INDEX,
+                                              Client.CONTENT_INDEX).getData();
+        FlatTree.Builder builder = new FlatTree.Builder();
+        addSubtree(builder, data, new Random(42), LAZY_TREE_DEPTH);
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        BinaryModel.write(builder.build(), binary);
+        byte[] bytes = binary.toByteArray();
+        System.out.println("generated tree (" + ((2 << LAZY_TREE_DEPTH) - 1) + " nodes, "
+                           + bytes.length + " bytes of binary)");
+        time("  eager load + first classify", () ->
+                new Classifier(new ByteArrayInputStream(bytes)).classify(data.get(0)).hashCode());
+        time("  lazy load + first classify", () ->
+                new Classifier(ByteBuffer.wrap(bytes)).classify(data.get(0)).hashCode());
+
+        Classifier eager = new Classifier(new ByteArrayInputStream(bytes));
+        Classifier lazy = new Classifier(ByteBuffer.wrap(bytes));
+        lazy.flatten();
+        time("  eager Classifier.classify", () -> {
+            long result = 0;
+            for (TextBlock input : data) {
+                result += eager.classify(input).hashCode();
+            }
+            return result;
+        });
+        time("  lazy Classifier.classify", () -> {
+            long result = 0;
+            for (TextBlock input : data) {
+                result += lazy.classify(input).hashCode();
+            }
+            return result;
+        });
+    }
+
+    // Times classifying the emails test set with the generated model of the lazy benchmark
+    //      stored in preorder against the same model laid out by a profile of the test set,
+    //      both as a FlatTree and as a MappedClassifier over a binary model file
+    private static void benchmarkLayout() throws IOException {
+        List<TextBlock> data = new DataLoader(TREE_DATA_FILE, Client.LABEL_INDEX,
+                                              Client.CONTENT_INDEX).getData();
+        FlatTree.Builder builder = new FlatTree.Builder();
+        addSubtree(builder, data, new Random(42), LAZY_TREE_DEPTH);
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        BinaryModel.write(builder.build(), binary);
+        Classifier c = new Classifier(new ByteArrayInputStream(binary.toByteArray()));
+        FlatTree preorder = c.flatten();
+        c.profile(data);
+        FlatTree profiled = c.flatten();
+        int hotRight = 0;
+        for (int node = 0; node < profiled.size(); node++) {
+            if (!profiled.isLeaf(node) && profiled.rightChild(node) == node + 1) {
+                hotRight++;
+            }
+        }
+        System.out.println("generated tree (" + profiled.size() + " nodes, " + hotRight
+                           + " decisions followed by their right child once profiled)");
+
+        Path preorderFile = Files.createTempFile("preorder", ".bin");
+        Path profiledFile = Files.createTempFile("profiled", ".bin");
+        try {
+            try (OutputStream output = Files.newOutputStream(preorderFile)) {
+                BinaryModel.write(preorder, output);
+            }
+            try (OutputStream output = Files.newOutputStream(profiledFile)) {
+                BinaryModel.write(profiled, output);
+            }
+            MappedClassifier mappedPreorder = new MappedClassifier(preorderFile.toString());
+            MappedClassifier mappedProfiled = new MappedClassifier(profiledFile.toString());
+            time("  preorder FlatTree", () -> {
+                long result = 0;
+                for (TextBlock input : data) {
+                    result += preorder.classify(input).hashCode();
+                }
+                return result;
+            });
+            time("  profiled FlatTree", () -> {
+                long result = 0;
+                for (TextBlock input : data) {
+                    result += profiled.classify(input).hashCode();
+                }
+                return result;
+            });
+            time("  preorder MappedClassifier", () -> {
+                long result = 0;
+                for (TextBlock input : data) {
+                    result += mappedPreorder.classify(input).hashCode();
+                }
+                return result;
+            });
+            time("  profiled MappedClassifier", () -> {
+                long result = 0;
+                for (TextBlock input : data) {
+                    result += mappedProfiled.classify(input).hashCode();
+                }
+                return result;
+            });
+        } finally {
+            Files.delete(preorderFile);
+            Files.delete(profiledFile);
+        }
+    }
+
+    // Times training a forest on the emails training set with a single thread against all of
+    //      the cores, then times classifying the test set with the forest the same two ways,
+    //      printing the accuracy of the forest and of a single tree of the same depth
+    private static void benchmarkForest() throws IOException {
+        DataLoader train = new DataLoader(Client.TRAIN_FILE, Client.LABEL_INDEX,
+                                          Client.CONTENT_INDEX);
+        DataLoader test = new DataLoader(TREE_DATA_FILE, Client.LABEL_INDEX,
+                                         Client.CONTENT_INDEX, false);
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool all = ForkJoinPool.commonPool();
+        System.out.println("forest of " + FOREST_TREES + " trees of depth " + FOREST_MAX_DEPTH
+                           + ", " + all.getParallelism() + " threads in the common pool");
+        time("  train on 1 thread", () -> new Forest(train.getData(), train.getLabels(),
+                                                     FOREST_TREES, FOREST_MAX_DEPTH, 42, single)
+                                                  .size());
+        time("  train on all cores", () -> new Forest(train.getData(), train.getLabels(),
+                                                      FOREST_TREES, FOREST_MAX_DEPTH, 42, all)
+                                                   .size());
+
+        Forest forest = new Forest(train.getData(), train.getLabels(), FOREST_TREES,
+                                   FOREST_MAX_DEPTH, 42);
+        time("  classifyAll on 1 thread", () ->
+                single.submit(() -> forest.classifyAll(test.getData()).hashCode()).join());
+        time("  classifyAll on all cores", () ->
+                all.submit(() -> forest.classifyAll(test.getData()).hashCode()).join());
+
+        Classifier tree = new Classifier(train.getData(), train.getLabels(), FOREST_MAX_DEPTH);
+        List<String> forestLabels = forest.classifyAll(test.getData());
+        int forestCorrect = 0;
+        int treeCorrect = 0;
+        for (int i = 0; i < test.getData().size(); i++) {
+            String expected = test.getLabels().get(i);
+            forestCorrect += forestLabels.get(i).equals(expected) ? 1 : 0;
+            treeCorrect += tree.classify(test.getData().get(i)).equals(expected) ? 1 : 0;
+        }
+        System.out.printf("  accuracy: forest %.4f, single tree %.4f%n",
+                          (double) forestCorrect / test.getData().size(),
+                          (double) treeCorrect / test.getData().size());
+        single.shutdown();
+    }
+
+    // Times classifying the emails test set with a forest of VOTE_TREES trees, with every
+    //      tree voting against stopping once the outcome is decided, printing the average
+    //      number of trees each input needed and how many labels differ between the two
+    private static void benchmarkVote() throws IOException {
+        DataLoader train = new DataLoader(Client.TRAIN_FILE, Client.LABEL_INDEX,
+                                          Client.CONTENT_INDEX);
+        List<TextBlock> data = new DataLoader(TREE_DATA_FILE, Client.LABEL_INDEX,
+                                              Client.CONTENT_INDEX, false).getData();
+        Forest forest = new Forest(train.getData(), train.getLabels(), VOTE_TREES,
+                                   FOREST_MAX_DEPTH, 42);
+        System.out.println("forest of " + VOTE_TREES + " trees of depth " + FOREST_MAX_DEPTH);
+        List<String> allVotes = forest.classifyAll(data);
+        forest.setEarlyExit(true);
+        List<String> earlyVotes = forest.classifyAll(data);
+        int changed = 0;
+        for (int i = 0; i < data.size(); i++) {
+            changed += allVotes.get(i).equals(earlyVotes.get(i)) ? 0 : 1;
+        }
+
+        for (boolean earlyExit : new boolean[] {false, true}) {
+            forest.setEarlyExit(earlyExit);
+            forest.resetMetrics();
+            time(earlyExit ? "  early exit" : "  every tree", () -> {
+                long result = 0;
+                for (TextBlock input : data) {
+                    result += forest.classify(input).hashCode();
+                }
+                return result;
+            });
+            System.out.printf("    %.2f trees per input%n",
+                              (double) forest.treesEvaluated() / forest.inputsClassified());
+        }
+        System.out.println("  labels changed by early exit: " + changed);
+    }
+
+    // Times classifying the emails training and test sets with forests of VOTE_TREES shallow
+    //      trees by walking every tree against scoring them all at once with a QuickScorer
+    private static void benchmarkQuick() throws IOException {
+        DataLoader train = new DataLoader(Client.TRAIN_FILE, Client.LABEL_INDEX,
+                                          Client.CONTENT_INDEX);
+        List<TextBlock> test = new DataLoader(TREE_DATA_FILE, Client.LABEL_INDEX,
+                                              Client.CONTENT_INDEX, false).getData();
+        for (int depth : QUICK_DEPTHS) {
+            Forest forest = new Forest(train.getData(), train.getLabels(), VOTE_TREES, depth, 42);
+            QuickScorer scorer = new QuickScorer(forest);
+            for (List<TextBlock> data : List.of(train.getData(), test)) {
+                System.out.println("forest of " + VOTE_TREES + " trees of depth " + depth + ", "
+                                   + (data == test ? "test" : "training") + " set");
+                time("  Forest.classify", () -> {
+                    long result = 0;
+                    for (TextBlock input : data) {
+                        result += forest.classify(input).hashCode();
+                    }
+                    return result;
+                });
+                time("  QuickScorer.classify", () -> {
+                    long result = 0;
+                    for (TextBlock input : data) {
+                        result += scorer.classify(input).hashCode();
+                    }
+                    return result;
+                });
+            }
+        }
+    }
+
+    // Helper method - adds a complete subtree of the given 'depth' to 'builder' in preorder,
+    //      testing the words of random messages from 'data' against random thresholds, and
+    //      returns the index of its root
+    private static int addSubtree(FlatTree.Builder builder, List<TextBlock> data, Random random,
+                                  int depth) {
+        if (depth == 0) {
+            return builder.addLeaf(random.nextBoolean() ? "spam" : "ham");
+        }
+        int[] featureIds = data.get(random.nextInt(data.size())).getFeatureIds();
+        int featureId = featureIds.length == 0 ? Vocabulary.id("empty")
+                                               : featureIds[random.nextInt(featureIds.length)];
+        int node = builder.addDecision(featureId, random.nextDouble() * 0.05);
+        builder.setLeft(node, addSubtree(builder, data, random, depth - 1));
+        builder.setRight(node, addSubtree(builder, data, random, depth - 1));
+        return node;
+    }
+
+    // Runs 'task' WARMUP_RUNS times, then prints the bytes the current thread allocated per
+    //      message over TIMED_RUNS more runs, where each run handles 'messages' messages
+    private static void allocation(String name, int messages, Task task) throws IOException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long result = 0;
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            result += task.run();
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            result += task.run();
+        }
+        long bytes = threads.getThreadAllocatedBytes(thread) - before;
+        System.out.printf("%-28s %10.1f bytes/message   (checksum %d)%n", name,
+                          (double) bytes / TIMED_RUNS / messages, result);
+    }
+
+    // Runs 'task' WARMUP_RUNS times untimed then TIMED_RUNS times timed, printing the average
+    //      time of a timed run. The task's results are combined and printed so the JIT can't
+    //      drop the work.
+    private static void time(String name, Task task) throws IOException {
+        long result = 0;
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            result += task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            result += task.run();
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / TIMED_RUNS;
+        System.out.printf("%-28s %10.3f ms/run   (checksum %d)%n", name, millis, result);
+    }
+
+    // A piece of work to time, returning a number derived from its result
+    private interface Task {
+        long run() throws IOException;
+    }
+}
@@ -0,0 +1,304 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.zip.*;
+
+// Reads and writes decision trees in a compact, versioned binary format that loads without
+//      parsing text. All numbers are big-endian, as DataOutputStream writes them. In order, a
+//      model holds:
+//          int      MAGIC, then VERSION
+//          int      number of features, then each feature as an int byte length and UTF-8 bytes
+//          int      number of labels, then each label the same way
+//          int      number of nodes
+//          bytes    zeros up to the next multiple of 8 bytes, so the records below are aligned
+//          records  RECORD_SIZE bytes per node, the root first (see below)
+//          int      CRC32 of every byte before it
+//      A node's record is an int of its feature index (NO_FEATURE for a decision that tests no
+//      feature), or ~(label index) for a leaf, an int locating its children (0 for a leaf),
+//      and the raw IEEE-754 bits of its threshold (0 for a leaf). One child of a decision is
+//      always the node right after it, and the int is the index of the other one: the right
+//      child's index if the left child comes next, or ~(left child's index) if the right
+//      child comes next. Version 1 models, which are always in preorder, are read too.
+public class BinaryModel {
+    public static final int MAGIC = 0x53434C46;     // "SCLF"
+    public static final int VERSION = 2;
+    public static final int RECORD_SIZE = 16;
+    public static final int NO_FEATURE = Integer.MAX_VALUE;     // Tests no feature
+
+    // Writes 'tree' to 'output' in the binary format, keeping the tree's node order. Features
+    //      are stored in the tree's slot order, so a decision's feature index is its slot.
+    // 'tree' and 'output' should be non-null.
+    // Throws an IllegalArgumentException
+    //      If a decision of 'tree' isn't followed by one of its children, as the trees
+    //      Classifier.flatten builds always are
+    // Throws an IOException
+    //      If writing to 'output' fails
+    public static void write(FlatTree tree, OutputStream output) throws IOException {
+        for (int node = 0; node < tree.size(); node++) {
+            if (!tree.isLeaf(node) && tree.leftChild(node) != node + 1
+                                   && tree.rightChild(node) != node + 1) {
+                throw new IllegalArgumentException("Decision " + node
+                                                   + " isn't followed by one of its children");
+            }
+        }
+        CRC32 checksum = new CRC32();
+        DataOutputStream out = new DataOutputStream(
+                new CheckedOutputStream(new BufferedOutputStream(output), checksum));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(tree.featureCount());
+        for (int slot = 0; slot < tree.featureCount(); slot++) {
+            writeString(out, Vocabulary.word(tree.slotFeatureId(slot)));
+        }
+        out.writeInt(tree.labelCount());
+        for (int code = 0; code < tree.labelCount(); code++) {
+            writeString(out, tree.getLabel(code));
+        }
+        out.writeInt(tree.size());
+        while (out.size() % 8 != 0) {
+            out.writeByte(0);
+        }
+        for (int node = 0; node < tree.size(); node++) {
+            if (tree.isLeaf(node)) {
+                out.writeInt(~tree.labelCode(node));
+                out.writeInt(0);
+                out.writeLong(0);
+            } else {
+                out.writeInt(tree.slot(node) >= 0 ? tree.slot(node) : NO_FEATURE);
+                out.writeInt(tree.leftChild(node) == node + 1 ? tree.rightChild(node)
+                                                               : ~tree.leftChild(node));
+                out.writeLong(Double.doubleToRawLongBits(tree.threshold(node)));
+            }
+        }
+        out.flush();
+        new DataOutputStream(output).writeInt((int) checksum.getValue());
+        output.flush();
+    }
+
+    // Returns the tree stored in binary format in the rest of 'input'. The model is read
+    //      completely and checked before any node is built.
+    // 'input' should be non-null.
+    // Throws an IOException
+    //      If reading fails, or the bytes aren't a model of this format and version, fail the
+    //      checksum, or describe an invalid tree
+    public static FlatTree read(InputStream input) throws IOException {
+        View model = new View(ByteBuffer.wrap(input.readAllBytes()));
+        model.verify();
+
+        // Nodes are added in the stored order, so they keep their indexes. Children always
+        // come after their parent, so the nodes form a tree if every node but the root is
+        // the child of exactly one decision.
+        FlatTree.Builder builder = new FlatTree.Builder();
+        boolean[] reached = new boolean[model.size()];
+        int children = 0;
+        try {
+            for (int node = 0; node < model.size(); node++) {
+                if (model.isLeaf(node)) {
+                    builder.addLeaf(model.label(node));
+                } else {
+                    int left = model.leftChild(node);
+                    int right = model.rightChild(node);
+                    if (reached[left] || reached[right]) {
+                        throw new IOException("Binary model is corrupt: node " + node
+                                              + " shares a child with another decision");
+                    }
+                    reached[left] = true;
+                    reached[right] = true;
+                    children += 2;
+                    builder.addDecision(model.featureId(node), model.threshold(node));
+                    builder.setLeft(node, left);
+                    builder.setRight(node, right);
+                }
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (children != model.size() - 1) {
+            throw new IOException("Binary model is corrupt: not every node is in the tree");
+        }
+        return builder.build();
+    }
+
+    // Helper method - writes 'value' as its byte length followed by its UTF-8 bytes
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // A read-only view of a binary model held in a ByteBuffer, such as a file mapped into
+    //      memory, that reads nodes straight from their records. Creating one reads the header
+    //      and the strings, not the nodes, and adds every feature word to the Vocabulary, so
+    //      TextBlocks built afterwards without adding words still see each word the model
+    //      tests. Labels are decoded the first time they are asked for. Threads that race to
+    //      decode the same label store equal values, so a View can be shared between threads.
+    //      Records are only checked as they are read: an accessor throws an
+    //      IllegalStateException for a record that can't be part of a valid model, such as a
+    //      child that doesn't come after its parent.
+    public static class View {
+        private final ByteBuffer model;
+        private final int[] labelOffsets;       // label index -> offset of its byte length
+        private final int recordsStart;
+        private final int nodes;
+        private final int[] featureIds;         // feature index -> vocabulary id
+        private final String[] labels;          // label index -> label, or null
+
+        // Constructs a new View of the binary model between the position and limit of 'model'
+        // 'model' should be non-null, and must not be changed while the View is used.
+        // Throws an IOException
+        //      If the bytes don't start like a binary model of a supported version
+        public View(ByteBuffer model) throws IOException {
+            this.model = model.slice().order(ByteOrder.BIG_ENDIAN);
+            int[] featureOffsets;       // feature index -> offset of its byte length
+            try {
+                if (this.model.getInt(0) != MAGIC) {
+                    throw new IOException("Not a binary model: wrong magic number");
+                }
+                int version = this.model.getInt(4);
+                if (version < 1 || version > VERSION) {
+                    throw new IOException("Unsupported binary model version: " + version);
+                }
+                int position = 8;
+                featureOffsets = new int[readCount(position)];
+                position = skipStrings(position + 4, featureOffsets);
+                this.labelOffsets = new int[readCount(position)];
+                position = skipStrings(position + 4, labelOffsets);
+                this.nodes = this.model.getInt(position);
+                this.recordsStart = (position + 4 + 7) / 8 * 8;
+                if (nodes <= 0 || (long) nodes * RECORD_SIZE
+                                  != this.model.capacity() - 4L - recordsStart) {
+                    throw new IOException(
+                            "Binary model is corrupt: wrong number of node records");
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Binary model is corrupt: " + e.getMessage(), e);
+            }
+            this.featureIds = new int[featureOffsets.length];
+            for (int index = 0; index < featureIds.length; index++) {
+                featureIds[index] = Vocabulary.id(readString(featureOffsets[index]));
+            }
+            this.labels = new String[labelOffsets.length];
+        }
+
+        // Checks the model's checksum, reading all of it
+        // Throws an IOException
+        //      If the checksum doesn't match, so the model is corrupt
+        public void verify() throws IOException {
+            CRC32 checksum = new CRC32();
+            ByteBuffer contents = model.duplicate();
+            contents.position(0).limit(model.capacity() - 4);
+            checksum.update(contents);
+            if ((int) checksum.getValue() != model.getInt(model.capacity() - 4)) {
+                throw new IOException("Binary model is corrupt: checksum mismatch");
+            }
+        }
+
+        // Returns the number of nodes (decisions and leaves) in the model. The root is node 0.
+        public int size() {
+            return nodes;
+        }
+
+        // Returns true if the node at index 'node' is a leaf
+        public boolean isLeaf(int node) {
+            return model.getInt(record(node)) < 0;
+        }
+
+        // Returns the vocabulary id of the feature the decision node at 'node' tests, or -1 if
+        //      it tests no feature
+        public int featureId(int node) {
+            int index = model.getInt(record(node));
+            if (index == NO_FEATURE) {
+                return -1;
+            }
+            if (index < 0 || index >= featureIds.length) {
+                throw new IllegalStateException("Binary model is corrupt: node " + node
+                                                + " has no feature");
+            }
+            return featureIds[index];
+        }
+
+        // Returns the threshold of the decision node at 'node'
+        public double threshold(int node) {
+            return model.getDouble(record(node) + 8);
+        }
+
+        // Returns the index of the left child of the decision node at 'node'
+        public int leftChild(int node) {
+            int other = otherChild(node);
+            return other < 0 ? ~other : node + 1;
+        }
+
+        // Returns the index of the right child of the decision node at 'node'
+        public int rightChild(int node) {
+            int other = otherChild(node);
+            return other < 0 ? node + 1 : other;
+        }
+
+        // Helper method - returns the stored index of the child of the decision at 'node' that
+        //      isn't right after it, as ~index if that is the left child
+        private int otherChild(int node) {
+            int other = model.getInt(record(node) + 4);
+            int index = other < 0 ? ~other : other;
+            if (index <= node + 1 || index >= nodes) {
+                throw new IllegalStateException("Binary model is corrupt: node " + node
+                                                + " has a bad child");
+            }
+            return other;
+        }
+
+        // Returns the label of the leaf at 'node'
+        public String label(int node) {
+            int index = ~model.getInt(record(node));
+            if (index < 0 || index >= labels.length) {
+                throw new IllegalStateException("Binary model is corrupt: node " + node
+                                                + " has no label");
+            }
+            String label = labels[index];
+            if (label == null) {
+                label = readString(labelOffsets[index]);
+                labels[index] = label;
+            }
+            return label;
+        }
+
+        // Helper method - returns the offset of the record of the node at index 'node'
+        private int record(int node) {
+            if (node < 0 || node >= nodes) {
+                throw new IllegalStateException("Binary model has no node " + node);
+            }
+            return recordsStart + node * RECORD_SIZE;
+        }
+
+        // Helper method - returns the count stored at 'position', rejecting counts that are
+        //      negative or larger than the model itself
+        private int readCount(int position) {
+            int count = model.getInt(position);
+            if (count < 0 || count > model.capacity()) {
+                throw new IndexOutOfBoundsException("bad count " + count);
+            }
+            return count;
+        }
+
+        // Helper method - records the offset of each of the length-prefixed Strings stored
+        //      from 'position' on in 'offsets', returning the position right after the last one
+        private int skipStrings(int position, int[] offsets) {
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = position;
+                int length = model.getInt(position);
+                if (length < 0 || length > model.capacity() - position - 4) {
+                    throw new IndexOutOfBoundsException("bad string length " + length);
+                }
+                position += 4 + length;
+            }
+            return position;
+        }
+
+        // Helper method - decodes the length-prefixed UTF-8 String stored at 'offset'
+        private String readString(int offset) {
+            byte[] bytes = new byte[model.getInt(offset)];
+            model.get(offset + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 
 import java.io.*;
+import java.nio.*;
 import java.util.*;
 
 // This class is a Classifier that organizes and classifies data based
@@ -9,31 +10,96 @@ import java.util.*;
 public class Classifier { 
     private ClassifierNode overallRoot;
 
+    // True once the training data has been released, after which no data can be inserted
+    private boolean frozen;
+
+    // Array-based copy of the tree for classifying raw text, or null until first needed.
+    //  Cleared whenever the tree changes.
+    private FlatTree flatTree;
+
+    // Binary model that nodes are decoded from as they are first reached, or null if the
+    //  whole tree is already built
+    private BinaryModel.View model;
+
+    // A node of the tree that the batch constructor still has to build
+    private static class PendingNode{
+        public final int[] examples;
+        public final int depth;
+        public final ClassifierNode parent;
+        public final boolean isLeft;
+
+        // Behavior: 
+        //   - this method constructs a node that still has to be built.
+        // Parameters:
+        //   - examples: indexes of the data that reaches the node
+        //   - depth: number of decisions above the node
+        //   - parent: the decision node to attach the node to, or null for the root
+        //   - isLeft: true if the node is the parent's left child
+        // Returns:
+        //   - N/A
+        // Exceptions:
+        //   -N/A
+        public PendingNode(int[] examples, int depth, ClassifierNode parent, boolean isLeft){
+            this.examples = examples;
+            this.depth = depth;
+            this.parent = parent;
+            this.isLeft = isLeft;
+        }
+    }
+
     private static class ClassifierNode{
         public final String feature;
+        public final int featureId;
         public final double threshold;
         public final String label;
-        public final TextBlock data;
+        public TextBlock data;
         public ClassifierNode left;
         public ClassifierNode right;
 
+        // Index of the node's record in the binary model it was decoded from, or -1
+        public final int record;
+
+        // Number of profiled inputs whose path reached the node
+        public long hits;
+
         // Behavior: 
         //   - this method constructs a classifier based on feature and threshold and data.
         // Parameters:
-        //   - feature: characteristics of our dataset that is used in classification
-        //  and correspond to a numeric value.
+        //   - featureId: vocabulary id of the characteristic of our dataset that is used
+        //  in classification and corresponds to a numeric value, or -1 for none.
         //   - threshold: comparsion numeric value
         //   - data: the data
         // Returns:
         //   - N/A
         // Exceptions:
         //   -N/A
-        public ClassifierNode(String feature, double threshold, TextBlock data){
-            this.feature = feature;
+        public ClassifierNode(int featureId, double threshold, TextBlock data){
+            this.feature = featureId < 0 ? null : Vocabulary.word(featureId);
+            this.featureId = featureId;
             this.threshold = threshold;
             this.data = data;
             this.label = null;
-           
+            this.record = -1;
+        }
+
+        // Behavior:
+        //   - this method constructs a decision node decoded from a binary model, whose
+        //  children are decoded when they are first reached.
+        // Parameters:
+        //   - featureId: vocabulary id of the feature the node tests, or -1 for none
+        //   - threshold: comparsion numeric value
+        //   - record: index of the node's record in the binary model
+        // Returns:
+        //   - N/A
+        // Exceptions:
+        //   -N/A
+        public ClassifierNode(int featureId, double threshold, int record){
+            this.feature = featureId < 0 ? null : Vocabulary.word(featureId);
+            this.featureId = featureId;
+            this.threshold = threshold;
+            this.data = null;
+            this.label = null;
+            this.record = record;
         }
 
         // Behavior: 
@@ -46,15 +112,17 @@ public class Classifier {
         //   -N/A
         public ClassifierNode(String label, TextBlock data){
             this.feature = null;
+            this.featureId = -1;
             this.threshold = 0;
             this.label = label;
             this.data = data;
-            
+            this.record = -1;
         }
     }
     
     // Behavior: 
-    //   - this method constructs the classifier from the given input.
+    //   - this method constructs the classifier from the given input. A saved classifier
+    //  has no training data, so the loaded classifier is frozen.
     // Parameters:
     //   - input: contains classifier data
     // Returns:
@@ -66,11 +134,14 @@ public class Classifier {
             throw new IllegalArgumentException();
         }
         overallRoot = ClassifierHelper(input);
+        frozen = true;
 
     }
 
     // Behavior: 
-    //   - this method builds the classifier from the given input.
+    //   - this method builds the classifier from the given input. Nodes are read in
+    //  preorder, keeping the decision nodes that still need children on a stack instead of
+    //  recursing, so deep trees can't overflow the call stack.
     // Parameters:
     //   - input: contains classifier data
     // Returns:
@@ -81,14 +152,159 @@ public class Classifier {
         if(!input.hasNextLine()){
             return null;
         }
+        ClassifierNode root = readNode(input);
+        Deque<ClassifierNode> needChildren = new ArrayDeque<>();
+        if(root.label == null){
+            needChildren.push(root);
+        }
+        while(!needChildren.isEmpty() && input.hasNextLine()){
+            ClassifierNode node = readNode(input);
+            ClassifierNode parent = needChildren.peek();
+            if(parent.left == null){
+                parent.left = node;
+            }
+            else{
+                parent.right = node;
+                needChildren.pop();
+            }
+            if(node.label == null){
+                needChildren.push(node);
+            }
+        }
+        return root;
+    }
+
+    // Behavior:
+    //   - this method constructs the classifier from a model saved with saveBinary, which
+    //  loads much faster than the text format since nothing has to be parsed. The model's
+    //  format version and checksum are checked first. Like a classifier loaded from text,
+    //  the loaded classifier is frozen.
+    // Parameters:
+    //   - input: contains the binary model, which is read to its end
+    // Returns:
+    //   - N/A
+    // Exceptions:
+    //   - if the given input is null, an IllegalArgumentException is thrown.
+    //   - if the input can't be read, or doesn't hold a valid binary model, an IOException
+    //  is thrown.
+    public Classifier(InputStream input) throws IOException{
+        if(input == null){
+            throw new IllegalArgumentException();
+        }
+        FlatTree tree = BinaryModel.read(input);
+
+        // Children come after their parent, so build the nodes from the back
+        ClassifierNode[] nodes = new ClassifierNode[tree.size()];
+        for(int i = tree.size() - 1; i >= 0; i--){
+            if(tree.isLeaf(i)){
+                nodes[i] = new ClassifierNode(tree.getLabel(tree.labelCode(i)), null);
+            }
+            else{
+                nodes[i] = new ClassifierNode(tree.featureId(i), tree.threshold(i), null);
+                nodes[i].left = nodes[tree.leftChild(i)];
+                nodes[i].right = nodes[tree.rightChild(i)];
+            }
+        }
+        overallRoot = nodes[0];
+        flatTree = tree;
+        frozen = true;
+    }
+
+    // Behavior:
+    //   - this method constructs the classifier over a model saved with saveBinary that is
+    //  held in a buffer, typically a file mapped into memory. Only the root is decoded at
+    //  first; every other node is decoded from its record the first time a traversal reaches
+    //  it, and is kept from then on. Classifying the first input therefore takes about the
+    //  same time however big the model is. Anything that walks the whole tree (saving,
+    //  flattening, evaluating or classifying raw text) decodes all of it. Records are
+    //  checked as they are decoded instead of up front, and the checksum isn't checked.
+    //  Like any loaded classifier, it is frozen.
+    // Parameters:
+    //   - model: the buffer holding the binary model between its position and limit, which
+    //  must not be changed while the classifier is used
+    // Returns:
+    //   - N/A
+    // Exceptions:
+    //   - if the given model is null, an IllegalArgumentException is thrown.
+    //   - if the buffer doesn't start like a binary model, an IOException is thrown.
+    //   - if a traversal reaches a record that can't be part of a valid model, an
+    //  IllegalStateException is thrown.
+    public Classifier(ByteBuffer model) throws IOException{
+        if(model == null){
+            throw new IllegalArgumentException();
+        }
+        this.model = new BinaryModel.View(model);
+        overallRoot = decode(0);
+        frozen = true;
+    }
+
+    // Behavior:
+    //   - this method builds the node with the given index from the binary model, without
+    //  its children.
+    // Parameters:
+    //   - record: index of the node's record in the binary model
+    // Returns:
+    //   - ClassifierNode: the decoded node
+    // Exceptions:
+    //   - N/A
+    private ClassifierNode decode(int record){
+        if(model.isLeaf(record)){
+            return new ClassifierNode(model.label(record), null);
+        }
+        return new ClassifierNode(model.featureId(record), model.threshold(record), record);
+    }
+
+    // Behavior:
+    //   - this method returns the left child of a decision node, decoding it from the binary
+    //  model the first time it is reached. Threads that race to decode the same child build
+    //  equal nodes, so no locking is needed.
+    // Parameters:
+    //   - node: the decision node
+    // Returns:
+    //   - ClassifierNode: the left child
+    // Exceptions:
+    //   - N/A
+    private ClassifierNode left(ClassifierNode node){
+        ClassifierNode child = node.left;
+        if(child == null && node.record >= 0){
+            child = decode(model.leftChild(node.record));
+            node.left = child;
+        }
+        return child;
+    }
+
+    // Behavior:
+    //   - this method returns the right child of a decision node, decoding it from the
+    //  binary model the first time it is reached, like left.
+    // Parameters:
+    //   - node: the decision node
+    // Returns:
+    //   - ClassifierNode: the right child
+    // Exceptions:
+    //   - N/A
+    private ClassifierNode right(ClassifierNode node){
+        ClassifierNode child = node.right;
+        if(child == null && node.record >= 0){
+            child = decode(model.rightChild(node.record));
+            node.right = child;
+        }
+        return child;
+    }
+
+    // Behavior: 
+    //   - this method reads a single node, without its children, from the given input.
+    // Parameters:
+    //   - input: contains classifier data
+    // Returns:
+    //   - ClassifierNode: the node that was read
+    // Exceptions:
+    //   - N/A
+    private ClassifierNode readNode(Scanner input){
         String line = input.nextLine();
         if(line.startsWith("Feature: ")){
             String feature = line.substring(9);
             double threshold = Double.parseDouble(input.nextLine().substring(11));
-            ClassifierNode temp = new ClassifierNode(feature, threshold, null);
-            temp.left = ClassifierHelper(input);
-            temp.right = ClassifierHelper(input);
-            return temp;
+            return new ClassifierNode(Vocabulary.id(feature), threshold, null);
         }
         else{
             return new ClassifierNode(line, null);
@@ -118,9 +334,276 @@ public class Classifier {
 
 
     // Behavior: 
-    //   - this method inserts new data into the classifier.
+    //   - this method constructs a classifier from labeled data, looking at all of the data
+    //  at once. Starting from all of the data, each node picks the feature and threshold
+    //  that split the data reaching it into the two purest groups (lowest weighted Gini
+    //  impurity), until a group has a single label, can't be split any purer, or reaches the
+    //  maximum depth. This gives much shallower trees than inserting the data one at a
+    //  time, with the same nodes and save format.
+    // Parameters:
+    //   - data: the list of data
+    //   - labels: list of corresponding labels for the data
+    //   - maxDepth: the most decisions allowed on the way from the root to a leaf
+    // Returns:
+    //   - N/A
+    // Exceptions:
+    //   - if the given data and labels are null or the size of the data does not correspond
+    //  to the size of the labels, data is empty, or maxDepth is negative, an
+    //  IllegalArgumentException is thrown.
+    public Classifier(List<TextBlock> data, List<String> labels, int maxDepth){
+        if(data == null || labels == null || data.size()!= labels.size()|| data.isEmpty()
+                || maxDepth < 0){
+            throw new IllegalArgumentException();
+        }
+
+        // Give each distinct label a code, in order of first appearance
+        List<String> labelNames = new ArrayList<>();
+        Map<String, Integer> labelToCode = new HashMap<>();
+        int[] codes = new int[labels.size()];
+        for(int i = 0; i < labels.size(); i++){
+            if(!labelToCode.containsKey(labels.get(i))){
+                labelToCode.put(labels.get(i), labelNames.size());
+                labelNames.add(labels.get(i));
+            }
+            codes[i] = labelToCode.get(labels.get(i));
+        }
+
+        int[] allExamples = new int[data.size()];
+        for(int i = 0; i < allExamples.length; i++){
+            allExamples[i] = i;
+        }
+        Deque<PendingNode> pending = new ArrayDeque<>();
+        pending.push(new PendingNode(allExamples, 0, null, false));
+        while(!pending.isEmpty()){
+            PendingNode next = pending.pop();
+            int[] examples = next.examples;
+            ClassifierNode node = null;
+            int leftSize = 0;
+            if(next.depth < maxDepth){
+                node = findBestSplit(data, codes, labelNames.size(), examples);
+            }
+            if(node != null){
+                for(int example : examples){
+                    if(data.get(example).get(node.featureId) < node.threshold){
+                        leftSize++;
+                    }
+                }
+                if(leftSize == 0 || leftSize == examples.length){
+                    node = null;
+                }
+            }
+
+            if(node == null){
+                node = majorityLeaf(data, codes, labelNames, examples);
+            }
+            else{
+                int[] left = new int[leftSize];
+                int[] right = new int[examples.length - leftSize];
+                int leftIndex = 0;
+                int rightIndex = 0;
+                for(int example : examples){
+                    if(data.get(example).get(node.featureId) < node.threshold){
+                        left[leftIndex++] = example;
+                    }
+                    else{
+                        right[rightIndex++] = example;
+                    }
+                }
+                pending.push(new PendingNode(right, next.depth + 1, node, false));
+                pending.push(new PendingNode(left, next.depth + 1, node, true));
+            }
+
+            if(next.parent == null){
+                overallRoot = node;
+            }
+            else if(next.isLeft){
+                next.parent.left = node;
+            }
+            else{
+                next.parent.right = node;
+            }
+        }
+    }
+
+    // Behavior: 
+    //   - this method finds the feature and threshold that split the given examples into
+    //  two groups with the lowest weighted Gini impurity. Every feature of the examples is
+    //  tried, with thresholds halfway between each pair of neighboring values.
+    // Parameters:
+    //   - data: the list of data
+    //   - codes: the label code of each datapoint
+    //   - labelCount: the number of distinct label codes
+    //   - examples: indexes of the data to split
+    // Returns:
+    //   - ClassifierNode: a decision node (without children) for the best split, or null if
+    //  no split is purer than the examples already are
+    // Exceptions:
+    //   - N/A
+    private ClassifierNode findBestSplit(List<TextBlock> data, int[] codes, int labelCount,
+                                         int[] examples){
+        int[] classTotals = new int[labelCount];
+        for(int example : examples){
+            classTotals[codes[example]]++;
+        }
+        double bestImpurity = impurity(classTotals, examples.length);
+        if(bestImpurity == 0){
+            return null;
+        }
+
+        // Pair every feature id with each example containing it (by position in examples),
+        // then sort so the pairs are grouped by feature
+        List<int[]> featureIds = new ArrayList<>();
+        int pairCount = 0;
+        for(int example : examples){
+            int[] ids = data.get(example).getFeatureIds();
+            featureIds.add(ids);
+            pairCount += ids.length;
+        }
+        long[] pairs = new long[pairCount];
+        int pairIndex = 0;
+        for(int i = 0; i < examples.length; i++){
+            for(int id : featureIds.get(i)){
+                pairs[pairIndex++] = ((long) id << 32) | i;
+            }
+        }
+        Arrays.sort(pairs);
+
+        ClassifierNode best = null;
+        double[][] values = new double[labelCount][examples.length];
+        int[] valueCounts = new int[labelCount];
+        int[] leftCounts = new int[labelCount];
+        int[] moved = new int[labelCount];
+        int start = 0;
+        while(start < pairs.length){
+            // Sort the nonzero values of this feature separately for each label
+            int featureId = (int) (pairs[start] >>> 32);
+            Arrays.fill(valueCounts, 0);
+            int end = start;
+            while(end < pairs.length && (int) (pairs[end] >>> 32) == featureId){
+                int example = examples[(int) pairs[end]];
+                int code = codes[example];
+                values[code][valueCounts[code]] = data.get(example).get(featureId);
+                valueCounts[code]++;
+                end++;
+            }
+
+            // Examples without the feature have a value of 0, so they start on the left.
+            // Sweep the values upwards, trying a threshold before each new value.
+            int leftSize = 0;
+            for(int code = 0; code < labelCount; code++){
+                Arrays.sort(values[code], 0, valueCounts[code]);
+                leftCounts[code] = classTotals[code] - valueCounts[code];
+                leftSize += leftCounts[code];
+                moved[code] = 0;
+            }
+            double previous = 0;
+            while(true){
+                double value = Double.POSITIVE_INFINITY;
+                for(int code = 0; code < labelCount; code++){
+                    if(moved[code] < valueCounts[code]){
+                        value = Math.min(value, values[code][moved[code]]);
+                    }
+                }
+                if(value == Double.POSITIVE_INFINITY){
+                    break;
+                }
+                if(leftSize > 0){
+                    double impurity = impurity(leftCounts, leftSize)
+                            + rightImpurity(classTotals, leftCounts, examples.length - leftSize);
+                    if(impurity < bestImpurity){
+                        bestImpurity = impurity;
+                        best = new ClassifierNode(featureId, midpoint(previous, value), null);
+                    }
+                }
+                for(int code = 0; code < labelCount; code++){
+                    while(moved[code] < valueCounts[code] && values[code][moved[code]] == value){
+                        moved[code]++;
+                        leftCounts[code]++;
+                        leftSize++;
+                    }
+                }
+                previous = value;
+            }
+            start = end;
+        }
+        return best;
+    }
+
+    // Behavior: 
+    //   - this method calculates the Gini impurity of a group, weighted by its size.
+    // Parameters:
+    //   - counts: the number of examples in the group with each label code
+    //   - size: the number of examples in the group
+    // Returns:
+    //   - double: size times the Gini impurity of the group
+    // Exceptions:
+    //   - N/A
+    private static double impurity(int[] counts, int size){
+        double sumOfSquares = 0;
+        for(int count : counts){
+            sumOfSquares += (double) count * count;
+        }
+        return size - sumOfSquares / size;
+    }
+
+    // Behavior: 
+    //   - this method calculates the weighted Gini impurity of the examples that are not
+    //  in the left group of a split.
     // Parameters:
-    //   - node: current classifier position
+    //   - totals: the number of examples with each label code
+    //   - leftCounts: the number of examples in the left group with each label code
+    //   - size: the number of examples not in the left group
+    // Returns:
+    //   - double: size times the Gini impurity of the right group
+    // Exceptions:
+    //   - N/A
+    private static double rightImpurity(int[] totals, int[] leftCounts, int size){
+        double sumOfSquares = 0;
+        for(int code = 0; code < totals.length; code++){
+            double count = totals[code] - leftCounts[code];
+            sumOfSquares += count * count;
+        }
+        return size - sumOfSquares / size;
+    }
+
+    // Behavior: 
+    //   - this method creates a leaf with the most common label of the given examples,
+    //  preferring the label that appeared first in the data on ties. The leaf keeps the
+    //  first example with that label as its data.
+    // Parameters:
+    //   - data: the list of data
+    //   - codes: the label code of each datapoint
+    //   - labelNames: the label of each label code
+    //   - examples: indexes of the data that reaches the leaf
+    // Returns:
+    //   - ClassifierNode: the leaf
+    // Exceptions:
+    //   - N/A
+    private ClassifierNode majorityLeaf(List<TextBlock> data, int[] codes,
+                                        List<String> labelNames, int[] examples){
+        int[] counts = new int[labelNames.size()];
+        for(int example : examples){
+            counts[codes[example]]++;
+        }
+        int best = 0;
+        for(int code = 1; code < counts.length; code++){
+            if(counts[code] > counts[best]){
+                best = code;
+            }
+        }
+        for(int example : examples){
+            if(codes[example] == best){
+                return new ClassifierNode(labelNames.get(best), data.get(example));
+            }
+        }
+        return null;
+    }
+
+    // Behavior: 
+    //   - this method inserts new data into the classifier. It walks down to the leaf the
+    //  data falls into with a loop, so deep trees can't overflow the call stack.
+    // Parameters:
+    //   - node: the root of the classifier
     //   - data: the new data
     //   - label: the label for the new data
     // Returns:
@@ -128,34 +611,106 @@ public class Classifier {
     // Exceptions:
     //   - N/A
     private ClassifierNode dataInserter(ClassifierNode node, TextBlock data, String label){
-        if (node.label != null) {
-            if (node.label.equals(label)) {
-                return node;
-            }
-            String bestFeature = node.data.findBiggestDifference(data);
-            double threshold = midpoint(node.data.get(bestFeature), data.get(bestFeature));
-            ClassifierNode decisionNode = new ClassifierNode(bestFeature, threshold, node.data);
-            if (data.get(bestFeature) < threshold) {
-                decisionNode.left = new ClassifierNode(label, data);
-                decisionNode.right = node; 
+        ClassifierNode parent = null;
+        ClassifierNode leaf = node;
+        while (leaf.label == null) {
+            parent = leaf;
+            if (data.get(leaf.featureId) < leaf.threshold) {
+                leaf = leaf.left;
             } 
             else {
-                decisionNode.right = new ClassifierNode(label, data);
-                decisionNode.left = node;
+                leaf = leaf.right;
             }
+        }
+        if (leaf.label.equals(label)) {
+            return node;
+        }
+
+        int bestFeature = leaf.data.findBiggestDifferenceId(data);
+        double threshold = midpoint(leaf.data.get(bestFeature), data.get(bestFeature));
+        ClassifierNode decisionNode = new ClassifierNode(bestFeature, threshold, leaf.data);
+        if (data.get(bestFeature) < threshold) {
+            decisionNode.left = new ClassifierNode(label, data);
+            decisionNode.right = leaf; 
+        } 
+        else {
+            decisionNode.right = new ClassifierNode(label, data);
+            decisionNode.left = leaf;
+        }
+
+        if (parent == null) {
             return decisionNode;
+        }
+        if (parent.left == leaf) {
+            parent.left = decisionNode;
         } 
         else {
-            if (data.get(node.feature) < node.threshold) {
-                node.left = dataInserter(node.left, data, label);
-            } 
-            else {
-                node.right = dataInserter(node.right, data, label);
+            parent.right = decisionNode;
+        }
+        return node;
+    }
+
+
+    // Behavior: 
+    //   - this method inserts new labeled data into the classifier, splitting the leaf it
+    //  reaches if that leaf has a different label.
+    // Parameters:
+    //   - data: the new data
+    //   - label: the label for the new data
+    // Returns:
+    //   - N/A
+    // Exceptions:
+    //   - if the given data or label is null, an IllegalArgumentException is thrown.
+    //   - if the classifier is frozen, an IllegalStateException is thrown.
+    public void insert(TextBlock data, String label){
+        if(data == null || label == null){
+            throw new IllegalArgumentException();
+        }
+        if(frozen){
+            throw new IllegalStateException("Can't insert into a frozen classifier");
+        }
+        overallRoot = dataInserter(overallRoot, data, label);
+        flatTree = null;
+    }
+
+    // Behavior: 
+    //   - this method releases the training data kept by every node, leaving a smaller
+    //  tree that can still classify and be saved but can no longer have data inserted.
+    //  Freezing an already frozen classifier does nothing.
+    // Parameters:
+    //   - N/A
+    // Returns:
+    //   - N/A
+    // Exceptions:
+    //   - N/A
+    public void freeze(){
+        if(frozen){
+            return;
+        }
+        Deque<ClassifierNode> toVisit = new ArrayDeque<>();
+        toVisit.push(overallRoot);
+        while(!toVisit.isEmpty()){
+            ClassifierNode node = toVisit.pop();
+            node.data = null;
+            if(node.label == null){
+                toVisit.push(node.right);
+                toVisit.push(node.left);
             }
-            return node;
         }
+        frozen = true;
     }
 
+    // Behavior: 
+    //   - this method reports whether the classifier is frozen.
+    // Parameters:
+    //   - N/A
+    // Returns:
+    //   - boolean: true if the training data has been released, false otherwise
+    // Exceptions:
+    //   - N/A
+    public boolean isFrozen(){
+        return frozen;
+    }
 
     // Behavior: 
     //   - this method classifies a given data input based on an existing classifier.
@@ -173,24 +728,282 @@ public class Classifier {
     }
 
 
+    // Behavior:
+    //   - this method classifies the raw text of a message without building a TextBlock,
+    //  counting only the words the classifier tests into reusable per-thread arrays. The
+    //  text gets the same label as a TextBlock of it would, and nothing is allocated per
+    //  message once the classifier has been used.
+    // Parameters:
+    //   - text: the message that will be classified
+    // Returns:
+    //   - String: the classification label assigned to the text
+    // Exceptions:
+    //   - if the given text is null, an IllegalArgumentException is thrown.
+    public String classify(CharSequence text){
+        FlatTree tree = flatTree();
+        return tree.getLabel(tree.classifyCode(text));
+    }
+
+    // Behavior:
+    //   - this method classifies a message encoded as UTF-8 bytes like classify(CharSequence),
+    //  decoding it into a reusable per-thread buffer. Malformed bytes are replaced like
+    //  new String(bytes, UTF_8) does, which allocates for that message.
+    // Parameters:
+    //   - utf8: the encoded message that will be classified
+    // Returns:
+    //   - String: the classification label assigned to the message
+    // Exceptions:
+    //   - if the given bytes are null, an IllegalArgumentException is thrown.
+    public String classify(byte[] utf8){
+        if(utf8 == null){
+            throw new IllegalArgumentException();
+        }
+        FlatTree tree = flatTree();
+        return tree.getLabel(tree.classifyCode(utf8, 0, utf8.length));
+    }
+
+    // Behavior:
+    //   - this method classifies a message encoded as UTF-8 in the bytes between the
+    //  position and limit of a buffer, like classify(byte[]). The buffer's position is left
+    //  unchanged.
+    // Parameters:
+    //   - utf8: the buffer holding the encoded message that will be classified
+    // Returns:
+    //   - String: the classification label assigned to the message
+    // Exceptions:
+    //   - if the given buffer is null, an IllegalArgumentException is thrown.
+    public String classify(ByteBuffer utf8){
+        FlatTree tree = flatTree();
+        return tree.getLabel(tree.classifyCode(utf8));
+    }
+
+    // Behavior:
+    //   - this method returns the array-based copy of the classifier, flattening it the
+    //  first time it is needed after a change. Threads racing to flatten the same tree each
+    //  build an identical copy, so no locking is needed.
+    // Parameters:
+    //   - N/A
+    // Returns:
+    //   - FlatTree: the array-based copy of the classifier
+    // Exceptions:
+    //   - N/A
+    private FlatTree flatTree(){
+        FlatTree tree = flatTree;
+        if(tree == null){
+            tree = flatten();
+            flatTree = tree;
+        }
+        return tree;
+    }
+
     // Behavior: 
-    //   - this method determines the classification label for a data input.
+    //   - this method determines the classification label for a data input, following
+    //  the decisions down to a leaf with a loop.
     // Parameters:
-    //   - node: current classifier position 
+    //   - node: the root of the classifier
     //   - input: the data that will be classified
     // Returns:
     //   - String: the classification label assigned to the data input
     // Exceptions:
     //   - N/A
     private String classifyHelper(ClassifierNode node, TextBlock input){
-        if(node.label != null){
-            return node.label;
+        while(node.label == null){
+            if(input.get(node.featureId) < node.threshold){
+                node = left(node);
+            }
+            else{
+                node = right(node);
+            }
         }
-        if(input.get(node.feature) < node.threshold){
-            return classifyHelper(node.left, input);
+        return node.label;
+    }
+
+    // Behavior:
+    //   - this method classifies every data input in the list, splitting the work across
+    //  all cores.
+    // Parameters:
+    //   - inputs: the data that will be classified
+    // Returns:
+    //   - List<String>: the classification label of each input, in the same order
+    // Exceptions:
+    //   - if the given inputs are null, an IllegalArgumentException is thrown.
+    public List<String> classifyAll(List<TextBlock> inputs){
+        if(inputs == null){
+            throw new IllegalArgumentException();
         }
-        else{
-            return classifyHelper(node.right, input);
+        String[] results = new String[inputs.size()];
+        classifyAll(inputs, results);
+        return Arrays.asList(results);
+    }
+
+    // Behavior:
+    //   - this method classifies every data input in the list, splitting the work across
+    //  all cores, and stores the labels in the given array. Nothing is allocated per input,
+    //  so the same array can be reused between batches, and the array-based copy of the
+    //  classifier is only built for the first batch after a change.
+    // Parameters:
+    //   - inputs: the data that will be classified
+    //   - results: receives the classification label of inputs.get(i) at index i
+    // Returns:
+    //   - N/A
+    // Exceptions:
+    //   - if the given inputs or results are null, or results is shorter than inputs, an
+    //  IllegalArgumentException is thrown.
+    public void classifyAll(List<TextBlock> inputs, String[] results){
+        flatTree().classifyAll(inputs, results);
+    }
+
+    // Behavior:
+    //   - this method classifies the labeled data in parallel and counts how often each
+    //  expected label was classified as each label, from which accuracy, precision and
+    //  recall can be read. Like classifyAll, it reuses the array-based copy of the
+    //  classifier until the classifier changes.
+    // Parameters:
+    //   - data: the list of data to classify
+    //   - labels: list of expected labels for the data
+    // Returns:
+    //   - ConfusionMatrix: the counts of every (expected, predicted) pair of labels
+    // Exceptions:
+    //   - if the given data or labels are null or the size of the data does not correspond
+    //  to the size of the labels, an IllegalArgumentException is thrown.
+    public ConfusionMatrix evaluate(List<TextBlock> data, List<String> labels){
+        return flatTree().evaluate(data, labels);
+    }
+
+    // Behavior:
+    //   - this method replays the data inputs through the classifier, adding one to the hit
+    //  counter of every node on each input's path. Once profiled, the classifier is
+    //  flattened and saved in binary with the hotter child of every decision stored right
+    //  after it and the subtrees no input reached stored last, so the common paths stay
+    //  within a few cache lines. Profiling again adds to the counters. Not safe to call
+    //  while other threads use the classifier.
+    // Parameters:
+    //   - inputs: the data to replay, such as recent real traffic
+    // Returns:
+    //   - N/A
+    // Exceptions:
+    //   - if the given inputs are null, an IllegalArgumentException is thrown.
+    public void profile(List<TextBlock> inputs){
+        if(inputs == null){
+            throw new IllegalArgumentException();
+        }
+        for(TextBlock input : inputs){
+            ClassifierNode node = overallRoot;
+            node.hits++;
+            while(node.label == null){
+                if(input.get(node.featureId) < node.threshold){
+                    node = left(node);
+                }
+                else{
+                    node = right(node);
+                }
+                node.hits++;
+            }
+        }
+        flatTree = null;
+    }
+
+    // Behavior:
+    //   - this method checks whether the classifier has a hit profile, collected by profile
+    //  or loaded by loadProfile.
+    // Parameters:
+    //   - N/A
+    // Returns:
+    //   - boolean: true if any input has been profiled, false otherwise
+    // Exceptions:
+    //   - N/A
+    public boolean isProfiled(){
+        return overallRoot.hits > 0;
+    }
+
+    // Behavior:
+    //   - this method compiles the classifier into a frozen, array-based tree that
+    //  classifies the same way but walks primitive arrays in a loop. Later changes to
+    //  this classifier are not reflected in the returned tree.
+    // Parameters:
+    //   - N/A
+    // Returns:
+    //   - FlatTree: the array-based copy of the classifier
+    // Exceptions:
+    //   - N/A
+    public FlatTree flatten(){
+        FlatTree.Builder builder = new FlatTree.Builder();
+        flattenHelper(overallRoot, builder);
+        return builder.build();
+    }
+
+    // Behavior:
+    //   - this method flattens the classifier and generates a class for the tree at runtime,
+    //  where every decision is a branch on a constant feature id and threshold the JIT can
+    //  inline. If the class can't be generated (the tree is too big, or the JVM refuses it),
+    //  the returned tree classifies by walking its arrays instead.
+    // Parameters:
+    //   - N/A
+    // Returns:
+    //   - FlatTree: the compiled copy of the classifier, see FlatTree.isCompiled
+    // Exceptions:
+    //   - N/A
+    public FlatTree compile(){
+        return flatten().compile();
+    }
+
+    // Behavior:
+    //   - this method adds a node and all of its descendants to the flat tree, keeping the
+    //  nodes still to visit on a stack instead of recursing. Each decision is followed by
+    //  its child with more hits, or its left child on a tie, so an unprofiled classifier is
+    //  stored in preorder. Subtrees that no profiled input reached are set aside and stored
+    //  after all of the reached nodes.
+    // Parameters:
+    //   - node: the root of the classifier
+    //   - builder: collects the nodes of the flat tree
+    // Returns:
+    //   - N/A
+    // Exceptions:
+    //   - N/A
+    private void flattenHelper(ClassifierNode node, FlatTree.Builder builder){
+        // Each node to visit is paired with 2 * (index of its parent), plus 1 if it is the
+        // right child, or -1 for the root
+        Deque<ClassifierNode> toVisit = new ArrayDeque<>();
+        Deque<Integer> childOf = new ArrayDeque<>();
+        Deque<ClassifierNode> cold = new ArrayDeque<>();
+        Deque<Integer> coldChildOf = new ArrayDeque<>();
+        toVisit.push(node);
+        childOf.push(-1);
+        while(!toVisit.isEmpty() || !cold.isEmpty()){
+            if(toVisit.isEmpty()){
+                toVisit.push(cold.removeFirst());
+                childOf.push(coldChildOf.removeFirst());
+            }
+            node = toVisit.pop();
+            int parent = childOf.pop();
+            int index;
+            if(node.label != null){
+                index = builder.addLeaf(node.label);
+            }
+            else{
+                index = builder.addDecision(node.featureId, node.threshold);
+                ClassifierNode left = left(node);
+                ClassifierNode right = right(node);
+                boolean rightIsHotter = right.hits > left.hits;
+                ClassifierNode colder = rightIsHotter ? left : right;
+                int colderChildOf = rightIsHotter ? 2 * index : 2 * index + 1;
+                if(colder.hits == 0 && node.hits > 0){
+                    cold.addLast(colder);
+                    coldChildOf.addLast(colderChildOf);
+                }
+                else{
+                    toVisit.push(colder);
+                    childOf.push(colderChildOf);
+                }
+                toVisit.push(rightIsHotter ? right : left);
+                childOf.push(rightIsHotter ? 2 * index + 1 : 2 * index);
+            }
+            if(parent >= 0 && parent % 2 == 0){
+                builder.setLeft(parent / 2, index);
+            }
+            else if(parent >= 0){
+                builder.setRight(parent / 2, index);
+            }
         }
     }
 
@@ -209,24 +1022,109 @@ public class Classifier {
         saveHelper(overallRoot, output);
     }
 
+    // Behavior:
+    //   - this method saves the structure of the classifier in the binary format, which
+    //  stores the feature words once and the thresholds as raw bits (see BinaryModel).
+    //  Loading it with the InputStream constructor gives back the same classifier. The
+    //  nodes are stored in the order flatten gives them, so a profiled classifier is saved
+    //  with its hot paths together.
+    // Parameters:
+    //   - output: receives the binary model
+    // Returns:
+    //   - N/A
+    // Exceptions:
+    //   - if the given output is null, an IllegalArgumentException is thrown.
+    //   - if writing to the output fails, an IOException is thrown.
+    public void saveBinary(OutputStream output) throws IOException{
+        if(output == null){
+            throw new IllegalArgumentException();
+        }
+        BinaryModel.write(flatTree(), output);
+    }
+
+    // Behavior:
+    //   - this method saves the hit counters collected by profile, one per line, with the
+    //  nodes in the same order as save writes them. Saved next to the model file, it lets
+    //  the model be laid out by the same profile after it is loaded.
+    // Parameters:
+    //   - output: prints the hit counters
+    // Returns:
+    //   - N/A
+    // Exceptions:
+    //   - if the given output is null, an IllegalArgumentException is thrown.
+    public void saveProfile(PrintStream output){
+        if(output == null){
+            throw new IllegalArgumentException();
+        }
+        Deque<ClassifierNode> toWrite = new ArrayDeque<>();
+        toWrite.push(overallRoot);
+        while(!toWrite.isEmpty()){
+            ClassifierNode node = toWrite.pop();
+            output.println(node.hits);
+            if(node.label == null){
+                toWrite.push(right(node));
+                toWrite.push(left(node));
+            }
+        }
+    }
+
+    // Behavior:
+    //   - this method replaces the hit counters with ones saved by saveProfile for the same
+    //  model, as if the saved profile had been collected by this classifier.
+    // Parameters:
+    //   - input: contains the saved hit counters
+    // Returns:
+    //   - N/A
+    // Exceptions:
+    //   - if the given input is null, or doesn't hold exactly one counter per node, an
+    //  IllegalArgumentException is thrown.
+    public void loadProfile(Scanner input){
+        if(input == null){
+            throw new IllegalArgumentException();
+        }
+        Deque<ClassifierNode> toRead = new ArrayDeque<>();
+        toRead.push(overallRoot);
+        while(!toRead.isEmpty()){
+            ClassifierNode node = toRead.pop();
+            if(!input.hasNextLong()){
+                throw new IllegalArgumentException("Profile has fewer counters than nodes");
+            }
+            node.hits = input.nextLong();
+            if(node.label == null){
+                toRead.push(right(node));
+                toRead.push(left(node));
+            }
+        }
+        if(input.hasNext()){
+            throw new IllegalArgumentException("Profile has more counters than nodes");
+        }
+        flatTree = null;
+    }
+
     // Behavior: 
-    //   - this method writes the structure of the classifier to a file.
+    //   - this method writes the structure of the classifier to a file, in preorder,
+    //  keeping the nodes still to write on a stack instead of recursing.
     // Parameters:
-    //   - node: current Classifier position 
+    //   - node: the root of the classifier
     //   - output: prints the data of the classifier 
     // Returns:
     //   - N/A
     // Exceptions:
     //   - N/A
     private void saveHelper(ClassifierNode node, PrintStream output){
-        if(node.label != null){
-            output.println(node.label);
-        }
-        else{
-            output.println("Feature: " + node.feature);
-            output.println("Threshold: " + node.threshold);
-            saveHelper(node.left, output);
-            saveHelper(node.right, output);
+        Deque<ClassifierNode> toWrite = new ArrayDeque<>();
+        toWrite.push(node);
+        while(!toWrite.isEmpty()){
+            node = toWrite.pop();
+            if(node.label != null){
+                output.println(node.label);
+            }
+            else{
+                output.println("Feature: " + node.feature);
+                output.println("Threshold: " + node.threshold);
+                toWrite.push(right(node));
+                toWrite.push(left(node));
+            }
         }
     }
 
@@ -16,7 +16,7 @@ public class Client {
     // index 1 corresponds with the second column: Message
     public static final int CONTENT_INDEX = 1;
 
-    public static void main(String[] args) throws FileNotFoundException {
+    public static void main(String[] args) throws IOException {
         Scanner console = new Scanner(System.in);
         System.out.println("Welcome to the CSE 123 Classifier! " +
                            "To begin, enter your desired mode of operation:");
@@ -31,11 +31,12 @@ public class Client {
             System.out.println("1) Test with an input file");
             System.out.println("2) Get testing accuracy");
             System.out.println("3) Save to a file");
-            System.out.println("4) Quit");
+            System.out.println("4) Profile with an input file");
+            System.out.println("5) Quit");
             System.out.print("Enter your choice here: ");
 
             choice = console.nextInt();
-            while (choice != 1 && choice != 2 && choice != 3 && choice != 4) {
+            while (choice != 1 && choice != 2 && choice != 3 && choice != 4 && choice != 5) {
                 System.out.print("Please enter a valid option from above: ");
                 choice = console.nextInt();
             }
@@ -47,9 +48,12 @@ public class Client {
                 testModel(c, TEST_FILE);
             } else if (choice == 3) {
                 System.out.print("Please enter the file name you'd like to save to: ");
-                c.save(new PrintStream(console.next() + ".txt"));
+                saveModel(c, console.next());
+            } else if (choice == 4) {
+                System.out.print("Please enter the file you'd like to profile with: ");
+                profileModel(c, console.next());
             }
-        } while (choice != 4);
+        } while (choice != 5);
     }
 
     // Creates a classifier from a client provided information by either:
@@ -74,34 +78,73 @@ public class Client {
             return new Classifier(loader.getData(), loader.getLabels());
         } else {
             System.out.print("Please enter the path to the file you'd like to load: ");
-            Scanner input = new Scanner(new File(console.next()));
-            return new Classifier(input);
+            String fileName = console.next();
+            Classifier c = new Classifier(new Scanner(new File(fileName)));
+            File profile = new File(profileFileName(fileName));
+            if (profile.exists()) {
+                c.loadProfile(new Scanner(profile));
+            }
+            return c;
         }
     }
 
+    // Adds the datapoints within the given file to the given Classifier's hit profile, so that
+    //      its binary model is laid out with the paths they take together
+    // Throws a FileNotFoundException
+    //      If the provided dataset file doesn't exist
+    private static void profileModel(Classifier c, String fileName) throws FileNotFoundException {
+        DataLoader loader = new DataLoader(fileName, LABEL_INDEX, CONTENT_INDEX, false);
+        c.profile(loader.getData());
+        System.out.println("Profiled " + loader.getData().size() + " datapoints");
+    }
+
+    // Saves the given Classifier to the file with the given name plus ".txt". A profiled
+    //      Classifier also saves its hit profile next to it, and a binary model, laid out by
+    //      the profile, to the name plus ".bin".
+    // Throws an IOException
+    //      If one of the files can't be written
+    private static void saveModel(Classifier c, String fileName) throws IOException {
+        c.save(new PrintStream(fileName + ".txt"));
+        if (c.isProfiled()) {
+            c.saveProfile(new PrintStream(profileFileName(fileName + ".txt")));
+            try (OutputStream binary = new FileOutputStream(fileName + ".bin")) {
+                c.saveBinary(binary);
+            }
+        }
+    }
+
+    // Returns the name of the file the hit profile of the model saved in 'modelFileName' is
+    //      kept in, next to the model: the same name with its extension replaced by ".profile"
+    private static String profileFileName(String modelFileName) {
+        int dot = modelFileName.lastIndexOf('.');
+        if (dot <= modelFileName.lastIndexOf(File.separatorChar)) {
+            dot = modelFileName.length();
+        }
+        return modelFileName.substring(0, dot) + ".profile";
+    }
+
     // Uses the given Classifier to predict labels for the datapoints within the given testing 
     //      file, printing out the results
     // Throws a FileNotFoundException
     //      If the provided testing dataset file doesn't exist
     private static void evalModel(Classifier c, String fileName) throws FileNotFoundException {
-        DataLoader loader = new DataLoader(fileName, LABEL_INDEX, CONTENT_INDEX);
-        List<String> results = new ArrayList<>();
-        for (TextBlock data : loader.getData()) {
-            results.add(c.classify(data));
-        }
+        DataLoader loader = new DataLoader(fileName, LABEL_INDEX, CONTENT_INDEX, false);
+        List<String> results = c.classifyAll(loader.getData());
         System.out.println("Results: " + results);
     }
 
     // Tests the given Classifier on the datapoints within the given testing file, printing out the
-    //      accuracies for labels encountered during testing
+    //      accuracies for labels encountered during testing followed by the confusion matrix
     // Throws a FileNotFoundException
     //      If the provided testing dataset file doesn't exist
     private static void testModel(Classifier c, String fileName) throws FileNotFoundException {
-        DataLoader loader = new DataLoader(fileName, LABEL_INDEX, CONTENT_INDEX);
-        Map<String, Double> labelToAccuracy = c.calculateAccuracy(loader.getData(),
-                                                                  loader.getLabels());
+        DataLoader loader = new DataLoader(fileName, LABEL_INDEX, CONTENT_INDEX, false);
+        ConfusionMatrix results = c.evaluate(loader.getData(), loader.getLabels());
+        Map<String, Double> labelToAccuracy = results.toAccuracyMap();
         for (String label : labelToAccuracy.keySet()) {
             System.out.println(label + ": " + labelToAccuracy.get(label));
         }
+        System.out.println();
+        System.out.println(results);
     }
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+import java.util.*;
+
+// This class represents the results of classifying labeled data: for every pair of labels, how
+//      many datapoints with the first (expected) label were classified as the second
+//      (predicted) label
+public class ConfusionMatrix {
+    private final List<String> labels;
+    private final Map<String, Integer> labelToCode;
+    private final long[] counts;    // expected code * labels.size() + predicted code -> count
+
+    // Constructs a new ConfusionMatrix over the given labels, where the number of datapoints
+    //      expected to be labels.get(e) and predicted as labels.get(p) is found at
+    //      counts[e * labels.size() + p]
+    // 'labels' and 'counts' should be non-null.
+    // Throws an IllegalArgumentException
+    //      If 'counts' doesn't have an entry for every pair of labels
+    public ConfusionMatrix(List<String> labels, long[] counts) {
+        if (counts.length != labels.size() * labels.size()) {
+            throw new IllegalArgumentException(
+                    String.format("Expected %d counts for %d labels, but got %d",
+                                  labels.size() * labels.size(), labels.size(), counts.length));
+        }
+        this.labels = Collections.unmodifiableList(new ArrayList<>(labels));
+        this.labelToCode = new HashMap<>();
+        for (int i = 0; i < labels.size(); i++) {
+            labelToCode.put(labels.get(i), i);
+        }
+        this.counts = counts.clone();
+    }
+
+    // Returns every label that was either expected or predicted
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    // Returns how many datapoints with the 'expected' label were classified as 'predicted'
+    public long count(String expected, String predicted) {
+        if (!labelToCode.containsKey(expected) || !labelToCode.containsKey(predicted)) {
+            return 0;
+        }
+        return counts[labelToCode.get(expected) * labels.size() + labelToCode.get(predicted)];
+    }
+
+    // Returns the total number of datapoints classified
+    public long total() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    // Returns the fraction of all datapoints that were classified correctly, or 0 if there
+    //      were none
+    public double accuracy() {
+        long correct = 0;
+        for (int i = 0; i < labels.size(); i++) {
+            correct += counts[i * labels.size() + i];
+        }
+        return fraction(correct, total());
+    }
+
+    // Returns the fraction of datapoints classified as 'label' that really had that label,
+    //      or 0 if nothing was classified as 'label'
+    public double precision(String label) {
+        return fraction(count(label, label), predictedCount(label));
+    }
+
+    // Returns the fraction of datapoints with the given 'label' that were classified as it,
+    //      or 0 if no datapoint had that label
+    public double recall(String label) {
+        return fraction(count(label, label), expectedCount(label));
+    }
+
+    // Returns a map from each expected label, plus "Overall", to its accuracy, in the same form
+    //      as Classifier.calculateAccuracy. Unlike calculateAccuracy, labels that were never
+    //      classified correctly are included with an accuracy of 0.
+    public Map<String, Double> toAccuracyMap() {
+        Map<String, Double> labelToAccuracy = new HashMap<>();
+        for (String label : labels) {
+            if (expectedCount(label) > 0) {
+                labelToAccuracy.put(label, recall(label));
+            }
+        }
+        labelToAccuracy.put("Overall", accuracy());
+        return labelToAccuracy;
+    }
+
+    // Returns the matrix as a table with a row per expected label and a column per predicted
+    //      label, followed by each label's precision and recall
+    public String toString() {
+        StringBuilder result = new StringBuilder(String.format("%-20s", "expected \\ predicted"));
+        for (String label : labels) {
+            result.append(String.format(" %12s", label));
+        }
+        result.append(String.format(" %10s %10s%n", "precision", "recall"));
+        for (String expected : labels) {
+            result.append(String.format("%-20s", expected));
+            for (String predicted : labels) {
+                result.append(String.format(" %12d", count(expected, predicted)));
+            }
+            result.append(String.format(" %10.4f %10.4f%n",
+                                        precision(expected), recall(expected)));
+        }
+        result.append(String.format("Overall accuracy: %.4f", accuracy()));
+        return result.toString();
+    }
+
+    // Helper method - returns how many datapoints had the given 'label'
+    private long expectedCount(String label) {
+        long expected = 0;
+        for (String predicted : labels) {
+            expected += count(label, predicted);
+        }
+        return expected;
+    }
+
+    // Helper method - returns how many datapoints were classified as the given 'label'
+    private long predictedCount(String label) {
+        long predicted = 0;
+        for (String expected : labels) {
+            predicted += count(expected, label);
+        }
+        return predicted;
+    }
+
+    // Helper method - returns 'part' / 'whole', or 0 if 'whole' is 0
+    private static double fraction(long part, long whole) {
+        return whole == 0 ? 0 : (double) part / whole;
+    }
+}
@@ -1,25 +1,314 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 
-// Parses lines from CSV file, splitting on commas
+// Parses rows from CSV file, splitting on commas
 public class CsvReader {
+    // Splits a line on the commas outside of quotes. Rows are now split by a single-pass
+    //      parser instead, but this remains for comparison.
     public static final String COMMA = ",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
 
-    // Reads data from the provided file, converting each line into its own List split on commas.
+    // Smallest and largest pieces a file is split into for parallel parsing
+    public static final long MIN_CHUNK_SIZE = 64 * 1024;
+    public static final long MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    // Largest part of a file that is mapped at once while looking for chunk boundaries
+    private static final long SCAN_WINDOW = 1 << 30;
+
+    // Where the byte scan for chunk boundaries is within a row
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+
+    // Reads data from the provided file, converting each row into its own List split on commas.
     //      The returned value can be thought of as a 2d array, just with Lists instead!
     // 'fileName' should be non-null.
     // Throws a FileNotFoundException
     //      If the provided file doesn't exist
     public static List<List<String>> read(String fileName) throws FileNotFoundException {
-        List<List<String>> lines = new ArrayList<>();
-        
-        Scanner sc = new Scanner(new File(fileName));
-        sc.nextLine();      // Skip the first row since it's just titles
-        
-        while (sc.hasNextLine()) {
-            String line = sc.nextLine();
-            lines.add(Arrays.asList(line.split(COMMA)));
-        }
-        return lines;
+        try (Stream<List<String>> rows = stream(fileName)) {
+            return rows.collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    // Returns a Stream of the rows of the provided file, each split into its fields like read
+    //      does. Rows are only read from the file as the Stream is consumed, so the whole file
+    //      is never held in memory at once. The Stream should be closed once done with it.
+    // 'fileName' should be non-null.
+    // Throws a FileNotFoundException
+    //      If the provided file doesn't exist
+    public static Stream<List<String>> stream(String fileName) throws FileNotFoundException {
+        Reader reader = new FileReader(fileName);
+        Iterator<List<String>> rows;
+        try {
+            rows = new RowIterator(reader);
+            if (rows.hasNext()) {
+                rows.next();        // Skip the first row since it's just titles
+            }
+        } catch (RuntimeException e) {
+            close(reader);
+            throw e;
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows,
+                                            Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .onClose(() -> close(reader));
+    }
+
+    // Returns a parallel Stream of the rows of the provided file, each split into its fields
+    //      like read does. The file is memory-mapped and cut into chunks at row boundaries,
+    //      and the chunks are parsed concurrently on the Stream's ForkJoinPool. Rows keep their
+    //      file order for ordered operations such as collect or forEachOrdered; call
+    //      unordered() on the Stream when order doesn't matter. The Stream should be closed
+    //      once done with it. The file is cut into chunks for the parallelism of the ForkJoinPool
+    //      this is called from, or of the common pool when called from outside one.
+    //      Chunks can only be found in files whose encoding (the default charset) stores
+    //      commas, quotes and newlines as single ASCII bytes, like UTF-8 does. Other files are
+    //      read sequentially instead.
+    // 'fileName' should be non-null.
+    // Throws a FileNotFoundException
+    //      If the provided file doesn't exist
+    public static Stream<List<String>> parallelStream(String fileName)
+                                                      throws FileNotFoundException {
+        int parallelism = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool().getParallelism()
+                                                       : ForkJoinPool.getCommonPoolParallelism();
+        return parallelStream(fileName, parallelism);
+    }
+
+    // Returns a parallel Stream of the rows of the provided file like the method above, but
+    //      cuts the file into enough chunks for 'parallelism' threads, such as the threads of
+    //      the ForkJoinPool the Stream will be run on
+    // 'fileName' should be non-null.
+    // Throws an IllegalArgumentException
+    //      If 'parallelism' isn't positive
+    // Throws a FileNotFoundException
+    //      If the provided file doesn't exist
+    public static Stream<List<String>> parallelStream(String fileName, int parallelism)
+                                                      throws FileNotFoundException {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException();
+        }
+        Charset charset = Charset.defaultCharset();
+        if (!Arrays.equals("\",\n".getBytes(charset), new byte[] {'"', ',', '\n'})) {
+            return stream(fileName);
+        }
+        if (!new File(fileName).isFile()) {
+            throw new FileNotFoundException(fileName);
+        }
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+            List<Long> starts;
+            try {
+                starts = findChunkStarts(channel, parallelism);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            return IntStream.range(0, starts.size() - 1)
+                            .parallel()
+                            .boxed()
+                            .flatMap(i -> parseChunk(channel, starts.get(i), starts.get(i + 1),
+                                                     charset, i == 0))
+                            .onClose(() -> close(channel));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Helper method - returns the byte offsets where each chunk of the provided file starts,
+    //      followed by the size of the file, with about four chunks per thread of
+    //      'parallelism'. Each chunk starts at the beginning of a row.
+    private static List<Long> findChunkStarts(FileChannel channel, int parallelism)
+                                              throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.max(MIN_CHUNK_SIZE,
+                                  Math.min(MAX_CHUNK_SIZE, size / (4L * parallelism)));
+
+        List<Long> starts = new ArrayList<>();
+        starts.add(0L);
+        long nextStart = chunkSize;
+        int state = FIELD_START;
+        for (long windowStart = 0; windowStart < size; windowStart += SCAN_WINDOW) {
+            int windowSize = (int) Math.min(SCAN_WINDOW, size - windowStart);
+            MappedByteBuffer window =
+                    channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                byte b = window.get(i);
+                if (state == QUOTED) {
+                    if (b == '"') {
+                        state = QUOTE_IN_QUOTED;
+                    }
+                } else if (state == QUOTE_IN_QUOTED && b == '"') {
+                    state = QUOTED;         // A doubled "" quote inside a quoted field
+                } else if (state == FIELD_START && b == '"') {
+                    state = QUOTED;
+                } else if (b == ',') {
+                    state = FIELD_START;
+                } else if (b == '\n') {
+                    state = FIELD_START;
+                    long rowEnd = windowStart + i + 1;
+                    if (rowEnd >= nextStart && rowEnd < size) {
+                        starts.add(rowEnd);
+                        nextStart = rowEnd + chunkSize;
+                    }
+                } else {
+                    state = UNQUOTED;
+                }
+            }
+        }
+        starts.add(size);
+        return starts;
+    }
+
+    // Helper method - returns a Stream of the rows between the byte offsets 'start' and 'end'
+    //      of the provided file, skipping the first row if 'skipTitles' is true
+    private static Stream<List<String>> parseChunk(FileChannel channel, long start, long end,
+                                                   Charset charset, boolean skipTitles) {
+        try {
+            MappedByteBuffer bytes =
+                    channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            CharBuffer chars = charset.newDecoder()
+                                      .onMalformedInput(CodingErrorAction.REPLACE)
+                                      .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                                      .decode(bytes);
+            Iterator<List<String>> rows = new RowIterator(new CharArrayReader(chars.array(),
+                    chars.arrayOffset() + chars.position(), chars.remaining()));
+            if (skipTitles && rows.hasNext()) {
+                rows.next();
+            }
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows,
+                                                Spliterator.ORDERED | Spliterator.NONNULL), false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Helper method - closes the provided 'channel', rethrowing any failure unchecked
+    private static void close(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Helper method - closes the provided 'reader', rethrowing any failure unchecked
+    private static void close(Reader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Splits the characters of a Reader into CSV rows (RFC 4180) in a single pass. Fields may
+    //      be quoted to contain commas, line breaks and doubled "" quotes; the surrounding
+    //      quotes are removed from the returned fields. Rows end at \n or \r\n.
+    private static class RowIterator implements Iterator<List<String>> {
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int limit;
+        private final StringBuilder field = new StringBuilder();
+        private List<String> next;
+
+        // Constructs a new RowIterator over the characters of the provided 'reader'
+        public RowIterator(Reader reader) {
+            this.reader = reader;
+            this.next = parseRow();
+        }
+
+        // Returns true if there is another row to return
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        // Returns the next row
+        // Throws a NoSuchElementException
+        //      If there are no rows left
+        public List<String> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            List<String> row = next;
+            next = parseRow();
+            return row;
+        }
+
+        // Helper method - parses the fields of the next row, or returns null if there are none
+        private List<String> parseRow() {
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            List<String> row = new ArrayList<>();
+            field.setLength(0);
+            boolean quoted = false;
+            boolean atFieldStart = true;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        break;      // Unterminated quote, the file ends the field
+                    }
+                    if (c == '"') {
+                        c = read();
+                        if (c != '"') {
+                            // Closing quote, look at the following character unquoted
+                            quoted = false;
+                            continue;
+                        }
+                    }
+                    field.append((char) c);
+                } else if (c == '"' && atFieldStart) {
+                    quoted = true;
+                } else if (c == ',') {
+                    row.add(field.toString());
+                    field.setLength(0);
+                    atFieldStart = true;
+                    c = read();
+                    continue;
+                } else if (c == '\n' || c == -1) {
+                    break;
+                } else if (c == '\r') {
+                    c = read();
+                    if (c == '\n' || c == -1) {
+                        break;
+                    }
+                    field.append('\r');
+                    atFieldStart = false;
+                    continue;
+                } else {
+                    field.append((char) c);
+                }
+                atFieldStart = false;
+                c = read();
+            }
+            row.add(field.toString());
+            return row;
+        }
+
+        // Helper method - returns the next character, or -1 at the end of the input
+        private int read() {
+            if (position == limit) {
+                try {
+                    limit = reader.read(buffer, 0, buffer.length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            char c = buffer[position];
+            position++;
+            return c;
+        }
     }
 }
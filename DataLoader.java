@@ -1,5 +1,7 @@
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 import java.io.*;
 
 // This class represents a DataLoader capable of loading both data and labels from
@@ -10,19 +12,74 @@ public class DataLoader {
 
     // Constructs a new DataLoader storing and shuffling data from the given file, where labels
     //      are taken from the given index, using the given 'contentIndex' to convert a
-    //      particular row into the desired datapoint
+    //      particular row into the desired datapoint. Every word of the data is added to the
+    //      Vocabulary, as training needs.
     // 'filePath' should be non-null.
     // Throws a FileNotFoundException
     //      If the provided file doesn't exist
     public DataLoader(String filePath, int labelIndex, int contentIndex)
                       throws FileNotFoundException {
+        this(filePath, labelIndex, contentIndex, true);
+    }
+
+    // Constructs a new DataLoader like the constructor above. If 'addWords' is false, the
+    //      data is only meant to be classified, so words the Vocabulary doesn't know yet aren't
+    //      added to it (see TextBlock).
+    // 'filePath' should be non-null.
+    // Throws a FileNotFoundException
+    //      If the provided file doesn't exist
+    public DataLoader(String filePath, int labelIndex, int contentIndex, boolean addWords)
+                      throws FileNotFoundException {
         this.data = new ArrayList<>();
         this.labels = new ArrayList<>();
         
-        List<List<String>> rows = CsvReader.read(filePath);
-        for (List<String> row : rows) {
-            this.data.add(new TextBlock(row.get(contentIndex)));
-            this.labels.add(row.get(labelIndex));
+        // Rows are streamed from the file, so only one row's text is held at a time
+        try (Stream<List<String>> rows = CsvReader.stream(filePath)) {
+            rows.forEach(row -> {
+                this.data.add(new TextBlock(row.get(contentIndex), addWords));
+                this.labels.add(row.get(labelIndex).intern());
+            });
+        }
+        DataLoader.shuffle(this);
+    }
+
+    // Constructs a new DataLoader like the constructor above, but tokenizes the rows into
+    //      TextBlocks concurrently on the threads of the given 'pool'. The file is read with
+    //      CsvReader.parallelStream, cut into chunks for the pool's parallelism, and data and
+    //      labels still line up by index before they are shuffled.
+    // 'filePath' and 'pool' should be non-null.
+    // Throws a FileNotFoundException
+    //      If the provided file doesn't exist
+    public DataLoader(String filePath, int labelIndex, int contentIndex, ForkJoinPool pool)
+                      throws FileNotFoundException {
+        this(filePath, labelIndex, contentIndex, true, pool);
+    }
+
+    // Constructs a new DataLoader like the constructor above. If 'addWords' is false, the
+    //      data is only meant to be classified, so words the Vocabulary doesn't know yet aren't
+    //      added to it (see TextBlock).
+    // 'filePath' and 'pool' should be non-null.
+    // Throws a FileNotFoundException
+    //      If the provided file doesn't exist
+    public DataLoader(String filePath, int labelIndex, int contentIndex, boolean addWords,
+                      ForkJoinPool pool) throws FileNotFoundException {
+        List<Map.Entry<TextBlock, String>> examples;
+        try (Stream<List<String>> rows = CsvReader.parallelStream(filePath,
+                                                                  pool.getParallelism())) {
+            // A parallel Stream started from inside a ForkJoinPool runs on that pool
+            examples = pool.submit(() -> rows.map(row -> Map.entry(
+                                                        new TextBlock(row.get(contentIndex),
+                                                                      addWords),
+                                                        row.get(labelIndex).intern()))
+                                             .collect(Collectors.toList()))
+                           .join();
+        }
+
+        this.data = new ArrayList<>(examples.size());
+        this.labels = new ArrayList<>(examples.size());
+        for (Map.Entry<TextBlock, String> example : examples) {
+            this.data.add(example.getKey());
+            this.labels.add(example.getValue());
         }
         DataLoader.shuffle(this);
     }
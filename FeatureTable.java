@@ -0,0 +1,125 @@
+import java.util.*;
+
+// An open-addressing hash table of the words a model tests, used to read a model's features
+//      straight out of raw text. Text is split into words exactly like TextBlock does, but only
+//      words in the table are counted, and no Strings or TextBlocks are created. Once built, a
+//      FeatureTable is never changed, so it can be shared between threads.
+public class FeatureTable {
+    private final String[] words;       // slot -> word
+    private final int[] hashes;         // slot -> words[slot].hashCode()
+    private final int[] table;          // table index -> slot + 1, or 0 when empty
+
+    // Constructs a new FeatureTable of the words with the given vocabulary ids, where the
+    //      word of featureIds[slot] is counted into that slot. A negative id stands for no
+    //      word, so its slot is never counted into and stays 0.
+    // 'featureIds' should be non-null and hold distinct ids.
+    public FeatureTable(int[] featureIds) {
+        this.words = new String[featureIds.length];
+        this.hashes = new int[featureIds.length];
+
+        // Keep the table at most a quarter full, so misses usually end at the first empty index
+        int capacity = 16;
+        while (capacity < featureIds.length * 4) {
+            capacity *= 2;
+        }
+        this.table = new int[capacity];
+        for (int slot = 0; slot < featureIds.length; slot++) {
+            if (featureIds[slot] < 0) {
+                continue;
+            }
+            words[slot] = Vocabulary.word(featureIds[slot]);
+            hashes[slot] = words[slot].hashCode();
+            int index = spread(hashes[slot]) & (capacity - 1);
+            while (table[index] != 0) {
+                index = (index + 1) & (capacity - 1);
+            }
+            table[index] = slot + 1;
+        }
+    }
+
+    // Returns the number of words in this table
+    public int size() {
+        return words.length;
+    }
+
+    // Returns the word counted into the given 'slot', or null if it has no word
+    public String word(int slot) {
+        return words[slot];
+    }
+
+    // Splits 'text' into words in one pass over its characters, storing the word probability
+    //      of the word in each slot in values[slot] (number of times the word appeared / total
+    //      number of all words), as TextBlock.get would for a TextBlock of the same text.
+    //      Returns the total number of words.
+    // 'text' and 'values' should be non-null.
+    // Throws an IllegalArgumentException
+    //      If 'values' has fewer elements than size()
+    public int count(CharSequence text, double[] values) {
+        if (text == null || values == null || values.length < words.length) {
+            throw new IllegalArgumentException();
+        }
+        Arrays.fill(values, 0, words.length, 0);
+        int total = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && WordCounter.isDelimiter(text.charAt(i))) {
+                i++;
+            }
+            if (i < length) {
+                int start = i;
+                int hash = 0;
+                while (i < length && !WordCounter.isDelimiter(text.charAt(i))) {
+                    hash = 31 * hash + text.charAt(i);
+                    i++;
+                }
+                total++;
+                int slot = find(text, start, i, hash);
+                if (slot >= 0) {
+                    values[slot]++;
+                }
+            }
+        }
+
+        // Counts are whole numbers, so dividing them as doubles gives TextBlock's exact values
+        if (total != 0) {
+            for (int slot = 0; slot < words.length; slot++) {
+                values[slot] /= total;
+            }
+        }
+        return total;
+    }
+
+    // Helper method - returns the slot of the word between 'start' and 'end' of 'text', or -1
+    //      if it isn't in the table
+    private int find(CharSequence text, int start, int end, int hash) {
+        int mask = table.length - 1;
+        int index = spread(hash) & mask;
+        while (table[index] != 0) {
+            int slot = table[index] - 1;
+            if (hashes[slot] == hash && sameWord(words[slot], text, start, end)) {
+                return slot;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Helper method - returns true if 'word' is the text between 'start' and 'end' of 'text'
+    private static boolean sameWord(String word, CharSequence text, int start, int end) {
+        if (word.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Helper method - mixes the high bits of 'hash' into the low bits used to pick an index
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,605 @@
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+import java.nio.*;
+import java.nio.charset.*;
+
+// This class represents a frozen, array-based copy of a Classifier's decision tree. Each node
+//      is an index into parallel primitive arrays, so classifying walks the arrays in a loop
+//      instead of chasing ClassifierNode references. The root is always stored at index 0.
+public class FlatTree {
+    // Each thread resolves the features of the input it is classifying into its own SlotCache
+    private static final ThreadLocal<SlotCache> SLOT_CACHES =
+            ThreadLocal.withInitial(SlotCache::new);
+
+    // Each thread decodes the UTF-8 text it is classifying into its own TextBuffer
+    private static final ThreadLocal<TextBuffer> TEXT_BUFFERS =
+            ThreadLocal.withInitial(TextBuffer::new);
+
+    private final String[] labels;      // label code -> label
+    private final int[] featureIds;     // node -> vocabulary id of the feature tested
+    private final double[] thresholds;  // node -> threshold of the decision
+    private final int[] left;           // node -> index of the left child
+    private final int[] right;          // node -> index of the right child
+    private final int[] labelCodes;     // node -> label code, or -1 for decision nodes
+    private final int[] slots;          // node -> slot of the feature tested, or -1 for leaves
+                                        //      and decisions that test no feature
+    private final int[] slotFeatureIds; // slot -> vocabulary id, ascending
+    private final int[] lookups;        // node -> vocabulary id to look up (-1 reads as 0), or
+                                        //      ~(slot + 1) if a path tests the feature twice so
+                                        //      it is cached
+    private final boolean cachesLookups;
+    private final FeatureTable features;    // The words of the slots, to count in raw text
+    private final ToIntFunction<TextBlock> compiled;    // Generated classifier, or null
+
+    // Constructs a new FlatTree from the nodes collected by the provided 'builder'
+    private FlatTree(Builder builder) {
+        this.labels = builder.labels.toArray(new String[0]);
+        this.featureIds = Arrays.copyOf(builder.featureIds, builder.size);
+        this.thresholds = Arrays.copyOf(builder.thresholds, builder.size);
+        this.left = Arrays.copyOf(builder.left, builder.size);
+        this.right = Arrays.copyOf(builder.right, builder.size);
+        this.labelCodes = Arrays.copyOf(builder.labelCodes, builder.size);
+        this.compiled = null;
+
+        // Every distinct feature the tree tests gets a slot, in order of vocabulary id. A
+        // decision splitting datapoints with identical word probabilities tests no feature
+        // (id -1), whose probability is always 0, so it gets no slot.
+        int[] tested = new int[featureIds.length];
+        int testedCount = 0;
+        for (int node = 0; node < featureIds.length; node++) {
+            if (labelCodes[node] < 0 && featureIds[node] >= 0) {
+                tested[testedCount] = featureIds[node];
+                testedCount++;
+            }
+        }
+        Arrays.sort(tested, 0, testedCount);
+        int slotCount = 0;
+        for (int i = 0; i < testedCount; i++) {
+            if (slotCount == 0 || tested[i] != tested[slotCount - 1]) {
+                tested[slotCount] = tested[i];
+                slotCount++;
+            }
+        }
+        this.slotFeatureIds = Arrays.copyOf(tested, slotCount);
+        this.slots = new int[featureIds.length];
+        for (int node = 0; node < featureIds.length; node++) {
+            slots[node] = labelCodes[node] < 0 && featureIds[node] >= 0
+                          ? Arrays.binarySearch(slotFeatureIds, featureIds[node]) : -1;
+        }
+        this.lookups = findLookups();
+        boolean cached = false;
+        for (int node = 0; node < lookups.length; node++) {
+            cached |= labelCodes[node] < 0 && lookups[node] < -1;
+        }
+        this.cachesLookups = cached;
+        this.features = new FeatureTable(slotFeatureIds);
+    }
+
+    // Constructs a new FlatTree sharing the nodes of 'tree' that classifies with 'compiled'
+    private FlatTree(FlatTree tree, ToIntFunction<TextBlock> compiled) {
+        this.labels = tree.labels;
+        this.featureIds = tree.featureIds;
+        this.thresholds = tree.thresholds;
+        this.left = tree.left;
+        this.right = tree.right;
+        this.labelCodes = tree.labelCodes;
+        this.slots = tree.slots;
+        this.slotFeatureIds = tree.slotFeatureIds;
+        this.lookups = tree.lookups;
+        this.cachesLookups = tree.cachesLookups;
+        this.features = tree.features;
+        this.compiled = compiled;
+    }
+
+    // Returns a copy of this tree that classifies through a class generated for it by
+    //      TreeCompiler, where every decision is a branch on constants the JIT can inline.
+    //      If the tree can't be compiled (see TreeCompiler.MAX_CODE_LENGTH), this tree is
+    //      returned instead, so classifying keeps working through the array walk.
+    public FlatTree compile() {
+        if (compiled != null) {
+            return this;
+        }
+        try {
+            return new FlatTree(this, TreeCompiler.compile(this));
+        } catch (IllegalStateException e) {
+            return this;
+        }
+    }
+
+    // Returns true if this tree classifies through a generated class
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
+    // Returns the label this tree assigns to the provided 'input'
+    // 'input' should be non-null.
+    public String classify(TextBlock input) {
+        return labels[classifyCode(input)];
+    }
+
+    // Returns the code of the label this tree assigns to the provided 'input', which can be
+    //      turned back into the label with getLabel. A feature that a path of the tree tests
+    //      at several levels is only looked up in the input once.
+    // 'input' should be non-null.
+    public int classifyCode(TextBlock input) {
+        if (input == null) {
+            throw new IllegalArgumentException();
+        }
+        if (compiled != null) {
+            return compiled.applyAsInt(input);
+        }
+        SlotCache cache = null;
+        if (cachesLookups) {
+            cache = SLOT_CACHES.get();
+            cache.reset(slotFeatureIds.length);
+        }
+        int node = 0;
+        while (labelCodes[node] < 0) {
+            int lookup = lookups[node];
+            double value = lookup >= -1 ? input.get(lookup)
+                                        : cache.get(input, ~lookup - 1, this);
+            if (value < thresholds[node]) {
+                node = left[node];
+            } else {
+                node = right[node];
+            }
+        }
+        return labelCodes[node];
+    }
+
+    // Returns the label this tree assigns to the raw 'text', the same label as for a TextBlock
+    //      of the text
+    // 'text' should be non-null.
+    public String classify(CharSequence text) {
+        return labels[classifyCode(text)];
+    }
+
+    // Returns the code of the label this tree assigns to the raw 'text'. Only the words this
+    //      tree tests are counted, in a single pass over the characters, into the calling
+    //      thread's reusable slot array, so no TextBlock is built.
+    // 'text' should be non-null.
+    public int classifyCode(CharSequence text) {
+        if (text == null) {
+            throw new IllegalArgumentException();
+        }
+        SlotCache cache = SLOT_CACHES.get();
+        cache.reset(slotFeatureIds.length);
+        features.count(text, cache.values);
+        return classifyCode(cache.values);
+    }
+
+    // Returns the code of the label this tree assigns to the text encoded as UTF-8 in the
+    //      'length' bytes of 'utf8' starting at 'offset', the same label as for a TextBlock of
+    //      the decoded text. Well-formed UTF-8 is decoded into the calling thread's reusable
+    //      buffer, so nothing is allocated; text with malformed bytes is decoded into a String,
+    //      replacing them like new String(bytes, UTF_8) does.
+    // 'utf8' should be non-null.
+    // Throws an IllegalArgumentException
+    //      If 'offset' and 'length' don't describe a range of 'utf8'
+    public int classifyCode(byte[] utf8, int offset, int length) {
+        if (utf8 == null || offset < 0 || length < 0 || length > utf8.length - offset) {
+            throw new IllegalArgumentException();
+        }
+        CharSequence text = TEXT_BUFFERS.get().decode(utf8, offset, length);
+        if (text == null) {
+            text = new String(utf8, offset, length, StandardCharsets.UTF_8);
+        }
+        return classifyCode(text);
+    }
+
+    // Returns the code of the label this tree assigns to the text encoded as UTF-8 in the
+    //      bytes between the position and limit of 'utf8', like classifyCode(byte[], int, int).
+    //      The buffer's position is left unchanged. Bytes of buffers without an accessible
+    //      array, such as direct buffers, are first copied into the thread's reusable buffer.
+    // 'utf8' should be non-null.
+    public int classifyCode(ByteBuffer utf8) {
+        if (utf8 == null) {
+            throw new IllegalArgumentException();
+        }
+        if (utf8.hasArray()) {
+            return classifyCode(utf8.array(), utf8.arrayOffset() + utf8.position(),
+                                utf8.remaining());
+        }
+        byte[] bytes = TEXT_BUFFERS.get().bytes(utf8.remaining());
+        utf8.get(utf8.position(), bytes, 0, utf8.remaining());
+        return classifyCode(bytes, 0, utf8.remaining());
+    }
+
+    // Returns the code of the label this tree assigns to an input whose word probabilities
+    //      are already resolved into 'values', where values[slot] is the probability of the
+    //      feature slotFeatureId(slot)
+    // 'values' should be non-null.
+    // Throws an IllegalArgumentException
+    //      If 'values' has fewer elements than featureCount()
+    public int classifyCode(double[] values) {
+        if (values == null || values.length < slotFeatureIds.length) {
+            throw new IllegalArgumentException();
+        }
+        int node = 0;
+        while (labelCodes[node] < 0) {
+            int slot = slots[node];
+            double value = slot >= 0 ? values[slot] : 0;
+            if (value < thresholds[node]) {
+                node = left[node];
+            } else {
+                node = right[node];
+            }
+        }
+        return labelCodes[node];
+    }
+
+    // Looks up every feature this tree tests in 'input', storing the word probability of
+    //      slotFeatureId(slot) in values[slot]. The result can be classified with
+    //      classifyCode(double[]).
+    // 'input' and 'values' should be non-null.
+    // Throws an IllegalArgumentException
+    //      If 'values' has fewer elements than featureCount()
+    public void resolve(TextBlock input, double[] values) {
+        if (input == null || values == null || values.length < slotFeatureIds.length) {
+            throw new IllegalArgumentException();
+        }
+        for (int slot = 0; slot < slotFeatureIds.length; slot++) {
+            values[slot] = input.get(slotFeatureIds[slot]);
+        }
+    }
+
+    // Classifies every TextBlock of 'inputs', storing the label of inputs.get(i) in results[i].
+    //      The inputs are split across the threads of the current ForkJoinPool (the common
+    //      pool unless called from inside another one). No objects are created per input.
+    // 'inputs' and 'results' should be non-null.
+    // Throws an IllegalArgumentException
+    //      If 'results' has fewer elements than 'inputs'
+    public void classifyAll(List<TextBlock> inputs, String[] results) {
+        if (inputs == null || results == null || results.length < inputs.size()) {
+            throw new IllegalArgumentException();
+        }
+        IntStream.range(0, inputs.size())
+                 .parallel()
+                 .forEach(i -> results[i] = classify(inputs.get(i)));
+    }
+
+    // Classifies every TextBlock of 'data' and compares the result against the label found at
+    //      the same index of 'labels', returning the counts of every (expected, predicted) pair.
+    //      The data is split across the threads of the current ForkJoinPool, and each thread
+    //      counts into its own array indexed by label code.
+    // 'data' and 'labels' should be non-null.
+    // Throws an IllegalArgumentException
+    //      If the number of datapoints doesn't match the number of provided labels
+    public ConfusionMatrix evaluate(List<TextBlock> data, List<String> labels) {
+        if (data == null || labels == null || data.size() != labels.size()) {
+            throw new IllegalArgumentException();
+        }
+
+        // Codes of this tree's labels come first, followed by labels it never predicts
+        List<String> allLabels = new ArrayList<>(Arrays.asList(this.labels));
+        Map<String, Integer> labelToCode = new HashMap<>();
+        for (int i = 0; i < allLabels.size(); i++) {
+            labelToCode.put(allLabels.get(i), i);
+        }
+        int[] expected = new int[labels.size()];
+        for (int i = 0; i < labels.size(); i++) {
+            String label = labels.get(i);
+            if (!labelToCode.containsKey(label)) {
+                labelToCode.put(label, allLabels.size());
+                allLabels.add(label);
+            }
+            expected[i] = labelToCode.get(label);
+        }
+
+        int labelCount = allLabels.size();
+        long[] counts = IntStream.range(0, data.size())
+                                 .parallel()
+                                 .collect(() -> new long[labelCount * labelCount],
+                                          (threadCounts, i) -> {
+                                              int predicted = classifyCode(data.get(i));
+                                              threadCounts[expected[i] * labelCount + predicted]++;
+                                          },
+                                          FlatTree::addCounts);
+        return new ConfusionMatrix(allLabels, counts);
+    }
+
+    // Helper method - adds the counts of 'other' into 'counts'
+    private static void addCounts(long[] counts, long[] other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other[i];
+        }
+    }
+
+    // Returns the label with the provided 'code'
+    public String getLabel(int code) {
+        return labels[code];
+    }
+
+    // Returns the number of distinct labels this tree can assign
+    public int labelCount() {
+        return labels.length;
+    }
+
+    // Returns the number of nodes (decisions and leaves) stored in this tree
+    public int size() {
+        return featureIds.length;
+    }
+
+    // Helper method - returns what each decision node looks up: the vocabulary id of its
+    //      feature (-1 if it tests none), or ~(slot + 1) if it tests the same feature as one
+    //      of its ancestors or descendants. The tree is walked depth-first with an explicit
+    //      stack, remembering the nearest decision on the current path that tests each slot.
+    private int[] findLookups() {
+        int[] lookups = featureIds.clone();
+        int[] nearest = new int[slotFeatureIds.length];     // slot -> decision on path, or -1
+        Arrays.fill(nearest, -1);
+        int[] outer = new int[featureIds.length];   // node -> nearest[slot] before the node
+        int[] toVisit = new int[2 * featureIds.length + 1];    // Each node is pushed at most twice
+        int pending = 1;                                        // toVisit[0] is the root, 0
+        while (pending > 0) {
+            pending--;
+            int node = toVisit[pending];
+            if (node < 0) {
+                node = ~node;       // Done with the subtree of this decision
+                nearest[slots[node]] = outer[node];
+            } else if (labelCodes[node] < 0 && slots[node] < 0) {
+                toVisit[pending] = right[node];
+                toVisit[pending + 1] = left[node];
+                pending += 2;
+            } else if (labelCodes[node] < 0) {
+                int slot = slots[node];
+                if (nearest[slot] >= 0) {
+                    lookups[node] = ~(slot + 1);
+                    lookups[nearest[slot]] = ~(slot + 1);
+                }
+                outer[node] = nearest[slot];
+                nearest[slot] = node;
+                toVisit[pending] = ~node;
+                toVisit[pending + 1] = right[node];
+                toVisit[pending + 2] = left[node];
+                pending += 3;
+            }
+        }
+        return lookups;
+    }
+
+    // Returns the number of distinct features the decisions of this tree test, each of which
+    //      has a slot from 0 to featureCount() - 1
+    public int featureCount() {
+        return slotFeatureIds.length;
+    }
+
+    // Returns the table of the words this tree tests, with the word of slotFeatureId(slot)
+    //      in the same slot
+    public FeatureTable featureTable() {
+        return features;
+    }
+
+    // Returns the vocabulary id of the feature in the given 'slot'. Slots are ordered by
+    //      ascending vocabulary id.
+    public int slotFeatureId(int slot) {
+        return slotFeatureIds[slot];
+    }
+
+    // Returns the slot of the feature the decision node at 'node' tests, or -1 if it tests
+    //      no feature
+    public int slot(int node) {
+        return slots[node];
+    }
+
+    // Returns true if the node at index 'node' is a leaf
+    public boolean isLeaf(int node) {
+        return labelCodes[node] >= 0;
+    }
+
+    // Returns the vocabulary id of the feature the decision node at 'node' tests, or -1 if
+    //      it tests no feature
+    public int featureId(int node) {
+        return featureIds[node];
+    }
+
+    // Returns the threshold of the decision node at 'node'
+    public double threshold(int node) {
+        return thresholds[node];
+    }
+
+    // Returns the index of the left child of the decision node at 'node'
+    public int leftChild(int node) {
+        return left[node];
+    }
+
+    // Returns the index of the right child of the decision node at 'node'
+    public int rightChild(int node) {
+        return right[node];
+    }
+
+    // Returns the label code of the leaf at 'node', or -1 if it is a decision node
+    public int labelCode(int node) {
+        return labelCodes[node];
+    }
+
+    // The word probabilities one thread has looked up for the input it is classifying. A slot's
+    //      value belongs to the current input only if its stamp matches, so moving on to the
+    //      next input is a single increment instead of clearing the arrays.
+    private static class SlotCache {
+        private double[] values = new double[0];
+        private int[] stamps = new int[0];
+        private int stamp;
+
+        // Starts a new input, making room for 'slotCount' slots
+        private void reset(int slotCount) {
+            if (stamps.length < slotCount) {
+                values = new double[slotCount];
+                stamps = new int[slotCount];
+                stamp = 0;
+            }
+            stamp++;
+            if (stamp == 0) {
+                // The stamp wrapped around, so old stamps could match again
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+
+        // Returns the word probability of the feature in 'slot' of 'tree' for 'input', only
+        //      looking it up the first time it is asked for since the last reset
+        private double get(TextBlock input, int slot, FlatTree tree) {
+            if (stamps[slot] != stamp) {
+                values[slot] = input.get(tree.slotFeatureIds[slot]);
+                stamps[slot] = stamp;
+            }
+            return values[slot];
+        }
+    }
+
+    // Reusable buffers one thread decodes UTF-8 text into
+    private static class TextBuffer {
+        private byte[] bytes = new byte[0];
+        private char[] chars = new char[0];
+        private CharBuffer text = CharBuffer.wrap(chars);
+
+        // Returns an array of at least 'length' bytes to copy encoded text into
+        private byte[] bytes(int length) {
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            return bytes;
+        }
+
+        // Returns the characters of the 'length' UTF-8 bytes of 'utf8' starting at 'offset',
+        //      decoded into this buffer, or null if the bytes aren't well-formed UTF-8. The
+        //      returned text is only valid until this buffer is used again.
+        private CharSequence decode(byte[] utf8, int offset, int length) {
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+                text = CharBuffer.wrap(chars);
+            }
+            int end = offset + length;
+            int size = 0;
+            int i = offset;
+            while (i < end) {
+                int b = utf8[i];
+                if (b >= 0) {
+                    chars[size] = (char) b;
+                    size++;
+                    i++;
+                    continue;
+                }
+
+                // A multi-byte sequence: its lead byte gives the number of continuation bytes
+                int extra;
+                int codePoint;
+                int smallest;
+                if ((b & 0xE0) == 0xC0) {
+                    extra = 1;
+                    codePoint = b & 0x1F;
+                    smallest = 0x80;
+                } else if ((b & 0xF0) == 0xE0) {
+                    extra = 2;
+                    codePoint = b & 0x0F;
+                    smallest = 0x800;
+                } else if ((b & 0xF8) == 0xF0) {
+                    extra = 3;
+                    codePoint = b & 0x07;
+                    smallest = 0x10000;
+                } else {
+                    return null;
+                }
+                if (end - i <= extra) {
+                    return null;
+                }
+                for (int j = 1; j <= extra; j++) {
+                    int next = utf8[i + j];
+                    if ((next & 0xC0) != 0x80) {
+                        return null;
+                    }
+                    codePoint = (codePoint << 6) | (next & 0x3F);
+                }
+                // Overlong encodings, surrogates and values past Unicode are malformed
+                if (codePoint < smallest || codePoint > Character.MAX_CODE_POINT
+                        || (codePoint >= Character.MIN_SURROGATE
+                            && codePoint <= Character.MAX_SURROGATE)) {
+                    return null;
+                }
+                if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                    chars[size] = Character.highSurrogate(codePoint);
+                    chars[size + 1] = Character.lowSurrogate(codePoint);
+                    size += 2;
+                } else {
+                    chars[size] = (char) codePoint;
+                    size++;
+                }
+                i += extra + 1;
+            }
+            text.clear();
+            text.limit(size);
+            return text;
+        }
+    }
+
+    // Collects nodes for a FlatTree. Nodes receive their index in the order they are added,
+    //      so the first node added becomes the root.
+    public static class Builder {
+        private final List<String> labels = new ArrayList<>();
+        private final Map<String, Integer> labelToCode = new HashMap<>();
+        private int[] featureIds = new int[16];
+        private double[] thresholds = new double[16];
+        private int[] left = new int[16];
+        private int[] right = new int[16];
+        private int[] labelCodes = new int[16];
+        private int size;
+
+        // Adds a decision node testing the feature with vocabulary id 'featureId' against
+        //      'threshold', returning its index. Its children must be attached afterwards
+        //      with setLeft and setRight.
+        public int addDecision(int featureId, double threshold) {
+            int node = addNode();
+            featureIds[node] = featureId;
+            thresholds[node] = threshold;
+            labelCodes[node] = -1;
+            return node;
+        }
+
+        // Adds a leaf node assigning 'label', returning its index
+        public int addLeaf(String label) {
+            int node = addNode();
+            if (!labelToCode.containsKey(label)) {
+                labelToCode.put(label, labels.size());
+                labels.add(label);
+            }
+            featureIds[node] = -1;
+            labelCodes[node] = labelToCode.get(label);
+            return node;
+        }
+
+        // Makes the node at index 'child' the left child of the decision node at 'node'
+        public void setLeft(int node, int child) {
+            left[node] = child;
+        }
+
+        // Makes the node at index 'child' the right child of the decision node at 'node'
+        public void setRight(int node, int child) {
+            right[node] = child;
+        }
+
+        // Returns a FlatTree of the nodes added so far
+        // Throws an IllegalStateException
+        //      If no nodes were added
+        public FlatTree build() {
+            if (size == 0) {
+                throw new IllegalStateException("A FlatTree needs at least one node");
+            }
+            return new FlatTree(this);
+        }
+
+        // Helper method - reserves the next node index, growing the arrays when full
+        private int addNode() {
+            if (size == featureIds.length) {
+                int capacity = size * 2;
+                featureIds = Arrays.copyOf(featureIds, capacity);
+                thresholds = Arrays.copyOf(thresholds, capacity);
+                left = Arrays.copyOf(left, capacity);
+                right = Arrays.copyOf(right, capacity);
+                labelCodes = Arrays.copyOf(labelCodes, capacity);
+            }
+            size++;
+            return size - 1;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+import java.io.*;
+
+// This class represents a bagged ensemble (random forest) of Classifiers. Each tree is trained
+//      on its own bootstrap sample of the data, drawn with replacement, and the forest labels
+//      an input with the label most of its trees vote for. Trees are trained concurrently on
+//      the threads of a ForkJoinPool, and classify through their FlatTrees, so a Forest can be
+//      shared between threads once built.
+public class Forest {
+    private final Classifier[] trees;
+    private final FlatTree[] flatTrees;     // tree -> its array-based copy
+    private final String[] labels;          // forest label code -> label
+    private final int[][] labelCodes;       // tree -> (tree's label code -> forest label code)
+    private volatile boolean earlyExit;
+
+    // Totals over every input classified, so the average number of trees an input needed can
+    //      be read while other threads keep classifying
+    private final LongAdder inputsClassified = new LongAdder();
+    private final LongAdder treesEvaluated = new LongAdder();
+
+    // Constructs a new Forest of 'treeCount' trees trained on bootstrap samples of the given
+    //      'data' and 'labels' with the Classifier's batch constructor, using all of the cores
+    //      of the common ForkJoinPool. The same 'seed' always draws the same samples.
+    // 'data' and 'labels' should be non-null.
+    // Throws an IllegalArgumentException
+    //      If the number of datapoints doesn't match the number of labels, there is no data,
+    //      'treeCount' isn't positive or 'maxDepth' is negative
+    public Forest(List<TextBlock> data, List<String> labels, int treeCount, int maxDepth,
+                  long seed) {
+        this(data, labels, treeCount, maxDepth, seed, ForkJoinPool.commonPool());
+    }
+
+    // Constructs a new Forest like the constructor above, training the trees concurrently on
+    //      the threads of the given 'pool'. Each tree draws its sample from its own Random,
+    //      seeded up front, so the trees don't depend on which thread trains them.
+    // 'data', 'labels' and 'pool' should be non-null.
+    // Throws an IllegalArgumentException
+    //      If the number of datapoints doesn't match the number of labels, there is no data,
+    //      'treeCount' isn't positive or 'maxDepth' is negative
+    public Forest(List<TextBlock> data, List<String> labels, int treeCount, int maxDepth,
+                  long seed, ForkJoinPool pool) {
+        if (data == null || labels == null || pool == null || data.size() != labels.size()
+                || data.isEmpty() || treeCount <= 0 || maxDepth < 0) {
+            throw new IllegalArgumentException();
+        }
+        Random random = new Random(seed);
+        long[] seeds = new long[treeCount];
+        for (int i = 0; i < treeCount; i++) {
+            seeds[i] = random.nextLong();
+        }
+
+        // A parallel Stream started from inside a ForkJoinPool runs on that pool
+        this.trees = pool.submit(() -> IntStream.range(0, treeCount)
+                                                .parallel()
+                                                .mapToObj(i -> train(data, labels, maxDepth,
+                                                                     new Random(seeds[i])))
+                                                .toArray(Classifier[]::new))
+                         .join();
+        this.flatTrees = new FlatTree[trees.length];
+        this.labelCodes = new int[trees.length][];
+        this.labels = indexLabels();
+    }
+
+    // Constructs a new Forest from the provided 'input', which holds a line "Trees: N"
+    //      followed by the N trees in the format of Classifier.save, as written by save
+    // 'input' should be non-null.
+    // Throws an IllegalArgumentException
+    //      If the input doesn't start with the number of trees, or has fewer trees than that
+    public Forest(Scanner input) {
+        if (input == null || !input.hasNextLine()) {
+            throw new IllegalArgumentException();
+        }
+        String header = input.nextLine();
+        if (!header.startsWith("Trees: ")) {
+            throw new IllegalArgumentException("Not a saved forest: " + header);
+        }
+        int treeCount = Integer.parseInt(header.substring(7));
+        if (treeCount <= 0) {
+            throw new IllegalArgumentException("A forest needs at least one tree");
+        }
+        this.trees = new Classifier[treeCount];
+        for (int i = 0; i < treeCount; i++) {
+            if (!input.hasNextLine()) {
+                throw new IllegalArgumentException("Forest is missing trees after tree " + i);
+            }
+            trees[i] = new Classifier(input);
+        }
+        this.flatTrees = new FlatTree[trees.length];
+        this.labelCodes = new int[trees.length][];
+        this.labels = indexLabels();
+    }
+
+    // Helper method - returns a frozen Classifier trained on a bootstrap sample of 'data' and
+    //      'labels' drawn with 'random'
+    private static Classifier train(List<TextBlock> data, List<String> labels, int maxDepth,
+                                    Random random) {
+        List<TextBlock> sampleData = new ArrayList<>(data.size());
+        List<String> sampleLabels = new ArrayList<>(data.size());
+        for (int i = 0; i < data.size(); i++) {
+            int example = random.nextInt(data.size());
+            sampleData.add(data.get(example));
+            sampleLabels.add(labels.get(example));
+        }
+        Classifier tree = new Classifier(sampleData, sampleLabels, maxDepth);
+        tree.freeze();
+        return tree;
+    }
+
+    // Helper method - flattens every tree and gives each label any tree assigns a forest
+    //      label code, in order of first appearance, returning the labels by code
+    private String[] indexLabels() {
+        List<String> allLabels = new ArrayList<>();
+        Map<String, Integer> labelToCode = new HashMap<>();
+        for (int i = 0; i < trees.length; i++) {
+            flatTrees[i] = trees[i].flatten();
+            labelCodes[i] = new int[flatTrees[i].labelCount()];
+            for (int code = 0; code < labelCodes[i].length; code++) {
+                String label = flatTrees[i].getLabel(code);
+                if (!labelToCode.containsKey(label)) {
+                    labelToCode.put(label, allLabels.size());
+                    allLabels.add(label);
+                }
+                labelCodes[i][code] = labelToCode.get(label);
+            }
+        }
+        return allLabels.toArray(new String[0]);
+    }
+
+    // Returns the label most trees of this forest assign to the provided 'input'. A tie goes
+    //      to the tied label that the earliest tree voted for. With early exit on, the trees
+    //      stop voting once the rest of them can't change the outcome.
+    // Throws an IllegalArgumentException
+    //      If 'input' is null
+    public String classify(TextBlock input) {
+        return labels[classifyCode(input)];
+    }
+
+    // Helper method - returns the forest label code of the label the trees vote for, adding
+    //      to the metrics
+    private int classifyCode(TextBlock input) {
+        if (input == null) {
+            throw new IllegalArgumentException();
+        }
+        boolean stopEarly = earlyExit;
+        int[] counts = new int[labels.length];
+        int[] firstVotes = new int[labels.length];     // label -> 1 + first tree voting for it,
+                                                        //      or 0 if no tree has yet
+        int best = -1;
+        int evaluated = 0;
+        while (evaluated < flatTrees.length) {
+            int vote = labelCodes[evaluated][flatTrees[evaluated].classifyCode(input)];
+            evaluated++;
+            counts[vote]++;
+            if (firstVotes[vote] == 0) {
+                firstVotes[vote] = evaluated;
+            }
+            if (best < 0 || counts[vote] > counts[best]
+                    || (counts[vote] == counts[best] && firstVotes[vote] < firstVotes[best])) {
+                best = vote;
+            }
+            if (stopEarly && isDecided(counts, firstVotes, best, flatTrees.length - evaluated)) {
+                break;
+            }
+        }
+        inputsClassified.increment();
+        treesEvaluated.add(evaluated);
+        return best;
+    }
+
+    // Helper method - returns true if no label can overtake the leading label 'best' with the
+    //      votes of the 'remaining' trees, given the votes so far. A label that could only tie
+    //      overtakes it only if its first vote came before the leader's.
+    private static boolean isDecided(int[] counts, int[] firstVotes, int best, int remaining) {
+        for (int label = 0; label < counts.length; label++) {
+            if (label != best) {
+                int most = counts[label] + remaining;
+                if (most > counts[best] || (most == counts[best] && firstVotes[label] != 0
+                                            && firstVotes[label] < firstVotes[best])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Turns early exit on or off. With it on, classifying an input evaluates the trees in
+    //      order and stops as soon as the trees left can't change which label wins, so inputs
+    //      get the same labels as with it off, usually from far fewer trees. It is off when a
+    //      forest is built.
+    public void setEarlyExit(boolean earlyExit) {
+        this.earlyExit = earlyExit;
+    }
+
+    // Returns true if early exit is on
+    public boolean isEarlyExit() {
+        return earlyExit;
+    }
+
+    // Returns the number of inputs this forest has classified
+    public long inputsClassified() {
+        return inputsClassified.sum();
+    }
+
+    // Returns the total number of trees evaluated over every input this forest has classified.
+    //      Divided by inputsClassified, it gives the average number of trees an input needed.
+    public long treesEvaluated() {
+        return treesEvaluated.sum();
+    }
+
+    // Sets the counts of inputs classified and trees evaluated back to 0
+    public void resetMetrics() {
+        inputsClassified.reset();
+        treesEvaluated.reset();
+    }
+
+    // Returns the label this forest assigns to each TextBlock of 'inputs', in the same order.
+    //      The inputs are split across the threads of the current ForkJoinPool (the common
+    //      pool unless called from inside another one).
+    // 'inputs' should be non-null.
+    public List<String> classifyAll(List<TextBlock> inputs) {
+        if (inputs == null) {
+            throw new IllegalArgumentException();
+        }
+        String[] results = new String[inputs.size()];
+        IntStream.range(0, inputs.size())
+                 .parallel()
+                 .forEach(i -> results[i] = classify(inputs.get(i)));
+        return Arrays.asList(results);
+    }
+
+    // Returns the number of trees in this forest
+    public int size() {
+        return trees.length;
+    }
+
+    // Returns the array-based copy of the tree at 'index', in the order the trees vote
+    public FlatTree getTree(int index) {
+        return flatTrees[index];
+    }
+
+    // Saves this forest to the provided 'output' as a line "Trees: N" followed by each of its
+    //      N trees in the format of Classifier.save, which the Scanner constructor reads back
+    // 'output' should be non-null.
+    public void save(PrintStream output) {
+        if (output == null) {
+            throw new IllegalArgumentException();
+        }
+        output.println("Trees: " + trees.length);
+        for (Classifier tree : trees) {
+            tree.save(output);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+// Classifies straight from a model file saved with Classifier.saveBinary, without loading it.
+//      The file is memory-mapped read-only and decisions are read from its node records as the
+//      tree is walked, so no nodes are ever built, and every process that maps the same file
+//      shares a single copy of it through the operating system's page cache. Opening a model
+//      only reads its header and string table lengths, however many nodes it has. Safe to use
+//      from multiple threads at once.
+public class MappedClassifier {
+    private final BinaryModel.View model;
+
+    // Constructs a new MappedClassifier over the binary model in the given file. The model's
+    //      checksum isn't checked, since that would read the whole file; call verify for that.
+    // 'fileName' should be non-null.
+    // Throws an IOException
+    //      If the file can't be mapped, or doesn't start like a binary model of a supported
+    //      version
+    public MappedClassifier(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                                                    StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Binary model is too large to map: " + fileName);
+            }
+            // The mapping stays valid after the channel is closed
+            this.model = new BinaryModel.View(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // Checks the model's checksum, reading the whole file
+    // Throws an IOException
+    //      If the checksum doesn't match, so the file is corrupt
+    public void verify() throws IOException {
+        model.verify();
+    }
+
+    // Returns the label the model assigns to the provided 'input'
+    // Throws an IllegalArgumentException
+    //      If 'input' is null
+    // Throws an IllegalStateException
+    //      If the walk reaches a record that can't be part of a valid model
+    public String classify(TextBlock input) {
+        if (input == null) {
+            throw new IllegalArgumentException();
+        }
+        int node = 0;
+        while (!model.isLeaf(node)) {
+            if (input.get(model.featureId(node)) < model.threshold(node)) {
+                node = model.leftChild(node);
+            } else {
+                node = model.rightChild(node);
+            }
+        }
+        return model.label(node);
+    }
+
+    // Returns the number of nodes (decisions and leaves) in the model
+    public int size() {
+        return model.size();
+    }
+}
@@ -0,0 +1,238 @@
+import java.util.*;
+import java.util.stream.*;
+
+// Scores every tree of a Forest at once in the style of QuickScorer, instead of walking each
+//      tree node by node. The leaves of each tree are numbered left to right and tracked as
+//      bits. A decision an input doesn't go left at (its word probability is at least the
+//      threshold) rules out every leaf of its left subtree, and the leftmost leaf still
+//      possible is exactly the leaf a walk would reach. The decisions of all trees are sorted
+//      by feature and then threshold, so an input only visits the decisions it rules out, in
+//      one pass over the words it contains. Once built, a QuickScorer is never changed, so it
+//      can be shared between threads.
+public class QuickScorer {
+    // Each thread scores the input it is classifying in its own Scratch
+    private static final ThreadLocal<Scratch> SCRATCHES = ThreadLocal.withInitial(Scratch::new);
+
+    private final String[] labels;          // label code -> label, in order of first appearance
+    private final int[] wordStarts;         // tree -> index of its first word of leaf bits
+    private final int[] leafLabels;         // tree's first leaf bit + leaf -> label code
+
+    // Decisions sorted by feature, then threshold. Those of the feature in slot s are found
+    //      from decisionStarts[s] to decisionStarts[s + 1].
+    private final int[] featureIds;         // slot -> vocabulary id, ascending
+    private final int[] decisionStarts;
+    private final double[] thresholds;      // decision -> threshold
+    private final int[] clearFrom;          // decision -> first leaf bit of its left subtree
+    private final int[] clearTo;            // decision -> leaf bit after its left subtree
+
+    // Leaf bits of an input with no words. Probabilities are never negative, so decisions with
+    //      thresholds of 0 or less are ruled out for every input.
+    private final long[] initialBits;
+
+    // Constructs a new QuickScorer that labels inputs the same way as the given 'forest'
+    // 'forest' should be non-null.
+    public QuickScorer(Forest forest) {
+        List<String> allLabels = new ArrayList<>();
+        Map<String, Integer> labelToCode = new HashMap<>();
+        this.wordStarts = new int[forest.size() + 1];
+        int decisionCount = 0;
+        for (int i = 0; i < forest.size(); i++) {
+            FlatTree tree = forest.getTree(i);
+            int leaves = (tree.size() + 1) / 2;
+            wordStarts[i + 1] = wordStarts[i] + (leaves + 63) / 64;
+            decisionCount += tree.size() - leaves;
+            for (int code = 0; code < tree.labelCount(); code++) {
+                if (!labelToCode.containsKey(tree.getLabel(code))) {
+                    labelToCode.put(tree.getLabel(code), allLabels.size());
+                    allLabels.add(tree.getLabel(code));
+                }
+            }
+        }
+        this.labels = allLabels.toArray(new String[0]);
+        this.leafLabels = new int[wordStarts[forest.size()] * 64];
+
+        // Number the leaves of each tree left to right, noting which leaves each decision's
+        // left subtree holds
+        int[] decisionFeatures = new int[decisionCount];
+        double[] decisionThresholds = new double[decisionCount];
+        int[] decisionFrom = new int[decisionCount];
+        int[] decisionTo = new int[decisionCount];
+        int decision = 0;
+        for (int i = 0; i < forest.size(); i++) {
+            FlatTree tree = forest.getTree(i);
+            int[] leftLeaves = new int[tree.size()];    // decision node -> first leaf on its left
+            int[] toVisit = new int[2 * tree.size() + 1];
+            int pending = 1;        // toVisit[0] is the root, 0
+            int leaf = wordStarts[i] * 64;
+            while (pending > 0) {
+                pending--;
+                int node = toVisit[pending];
+                if (node < 0) {
+                    // Everything left of the decision ~node has been numbered
+                    node = ~node;
+                    decisionFeatures[decision] = tree.featureId(node);
+                    decisionThresholds[decision] = tree.threshold(node);
+                    decisionFrom[decision] = leftLeaves[node];
+                    decisionTo[decision] = leaf;
+                    decision++;
+                } else if (tree.isLeaf(node)) {
+                    leafLabels[leaf] = labelToCode.get(tree.getLabel(tree.labelCode(node)));
+                    leaf++;
+                } else {
+                    leftLeaves[node] = leaf;
+                    toVisit[pending] = tree.rightChild(node);
+                    toVisit[pending + 1] = ~node;
+                    toVisit[pending + 2] = tree.leftChild(node);
+                    pending += 3;
+                }
+            }
+        }
+
+        // Sort the decisions by feature and threshold
+        Integer[] order = new Integer[decisionCount];
+        for (int i = 0; i < decisionCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingInt(i -> decisionFeatures[i])
+                                     .thenComparingDouble(i -> decisionThresholds[i]));
+        this.thresholds = new double[decisionCount];
+        this.clearFrom = new int[decisionCount];
+        this.clearTo = new int[decisionCount];
+        int[] slots = new int[decisionCount + 1];
+        int[] starts = new int[decisionCount + 1];
+        int slotCount = 0;
+        for (int i = 0; i < decisionCount; i++) {
+            int feature = decisionFeatures[order[i]];
+            if (slotCount == 0 || slots[slotCount - 1] != feature) {
+                slots[slotCount] = feature;
+                starts[slotCount] = i;
+                slotCount++;
+            }
+            thresholds[i] = decisionThresholds[order[i]];
+            clearFrom[i] = decisionFrom[order[i]];
+            clearTo[i] = decisionTo[order[i]];
+        }
+        starts[slotCount] = decisionCount;
+        this.featureIds = Arrays.copyOf(slots, slotCount);
+        this.decisionStarts = Arrays.copyOf(starts, slotCount + 1);
+
+        this.initialBits = new long[wordStarts[forest.size()]];
+        for (int i = 0; i < forest.size(); i++) {
+            int leaves = (forest.getTree(i).size() + 1) / 2;
+            for (int bit = 0; bit < leaves; bit++) {
+                int index = wordStarts[i] * 64 + bit;
+                initialBits[index >>> 6] |= 1L << index;
+            }
+        }
+        for (int i = 0; i < decisionCount; i++) {
+            if (thresholds[i] <= 0) {
+                clear(initialBits, clearFrom[i], clearTo[i]);
+            }
+        }
+    }
+
+    // Returns the label most trees of the forest assign to the provided 'input', with ties
+    //      going to the tied label that the earliest tree voted for, like Forest.classify
+    // Throws an IllegalArgumentException
+    //      If 'input' is null
+    public String classify(TextBlock input) {
+        if (input == null) {
+            throw new IllegalArgumentException();
+        }
+        Scratch scratch = SCRATCHES.get();
+        scratch.reset(initialBits, labels.length);
+        long[] bits = scratch.bits;
+
+        // Both the input's features and the slots are in ascending order of vocabulary id
+        int slot = 0;
+        for (int i = 0; i < input.featureCount() && slot < featureIds.length; i++) {
+            slot = Arrays.binarySearch(featureIds, slot, featureIds.length, input.featureIdAt(i));
+            if (slot < 0) {
+                slot = ~slot;
+            } else {
+                double value = input.getAt(i);
+                int end = decisionStarts[slot + 1];
+                for (int decision = decisionStarts[slot];
+                         decision < end && thresholds[decision] <= value; decision++) {
+                    clear(bits, clearFrom[decision], clearTo[decision]);
+                }
+                slot++;
+            }
+        }
+
+        // Each tree's exit leaf is its lowest bit still set
+        int[] counts = scratch.counts;
+        int[] firstVotes = scratch.firstVotes;     // label -> 1 + first tree voting for it, or 0
+        int best = -1;
+        for (int tree = 0; tree + 1 < wordStarts.length; tree++) {
+            int word = wordStarts[tree];
+            while (bits[word] == 0) {
+                word++;
+            }
+            int vote = leafLabels[word * 64 + Long.numberOfTrailingZeros(bits[word])];
+            counts[vote]++;
+            if (firstVotes[vote] == 0) {
+                firstVotes[vote] = tree + 1;
+            }
+            if (best < 0 || counts[vote] > counts[best]
+                    || (counts[vote] == counts[best] && firstVotes[vote] < firstVotes[best])) {
+                best = vote;
+            }
+        }
+        return labels[best];
+    }
+
+    // Returns the label this scorer assigns to each TextBlock of 'inputs', in the same order.
+    //      The inputs are split across the threads of the current ForkJoinPool (the common
+    //      pool unless called from inside another one).
+    // 'inputs' should be non-null.
+    public List<String> classifyAll(List<TextBlock> inputs) {
+        if (inputs == null) {
+            throw new IllegalArgumentException();
+        }
+        String[] results = new String[inputs.size()];
+        IntStream.range(0, inputs.size())
+                 .parallel()
+                 .forEach(i -> results[i] = classify(inputs.get(i)));
+        return Arrays.asList(results);
+    }
+
+    // Helper method - clears the leaf bits from 'from' up to but not including 'to'
+    private static void clear(long[] bits, int from, int to) {
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;           // Shifts only use the low 6 bits
+        long lastMask = -1L >>> (63 - ((to - 1) & 63));
+        if (first == last) {
+            bits[first] &= ~(firstMask & lastMask);
+        } else {
+            bits[first] &= ~firstMask;
+            for (int word = first + 1; word < last; word++) {
+                bits[word] = 0;
+            }
+            bits[last] &= ~lastMask;
+        }
+    }
+
+    // The leaf bits and vote counts one thread is scoring an input with, reused between inputs
+    private static class Scratch {
+        private long[] bits = new long[0];
+        private int[] counts = new int[0];
+        private int[] firstVotes = new int[0];
+
+        // Starts a new input from the leaf bits 'initialBits' with no votes for any of
+        //      'labelCount' labels
+        private void reset(long[] initialBits, int labelCount) {
+            if (bits.length < initialBits.length) {
+                bits = new long[initialBits.length];
+            }
+            if (counts.length < labelCount) {
+                counts = new int[labelCount];
+                firstVotes = new int[labelCount];
+            }
+            System.arraycopy(initialBits, 0, bits, 0, initialBits.length);
+            Arrays.fill(counts, 0, labelCount, 0);
+            Arrays.fill(firstVotes, 0, labelCount, 0);
+        }
+    }
+}
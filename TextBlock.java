@@ -2,64 +2,212 @@ import java.util.*;
 
 // This class represents a piece of text data that can be classified
 public class TextBlock {
-    private Map<String, Integer> wordCounts;
-    private double totalWords;
+    // Each thread tokenizes with its own reusable WordCounter
+    private static final ThreadLocal<WordCounter> COUNTERS =
+            ThreadLocal.withInitial(WordCounter::new);
 
-    // Constructs a new TextBlock from the provided content String
+    // Sparse word counts: featureIds[i] (sorted ascending) appeared counts[i] times and was the
+    //      firstSeen[i]'th distinct word of the content
+    private int[] featureIds;
+    private int[] counts;
+    private int[] firstSeen;
+    private int totalWords;
+
+    // Constructs a new TextBlock from the provided content String, adding every word it
+    //      contains to the Vocabulary so any of them can become a feature. Meant for data a
+    //      model is trained on.
     public TextBlock(String content) {
-        this.wordCounts = new HashMap<>();
-        parseContent(content);
+        this(content, true);
+    }
+
+    // Constructs a new TextBlock from the provided content String. If 'addWords' is false,
+    //      words the Vocabulary doesn't know yet count toward the total number of words but
+    //      aren't kept as features, so classifying messages doesn't grow the Vocabulary.
+    //      A model only tests words that were added when it was trained or loaded, so it
+    //      labels such a TextBlock the same way, as long as the model is loaded first.
+    public TextBlock(String content, boolean addWords) {
+        parseContent(content, addWords);
     }
 
     // Helper method - parses the content from the provided content String,
-    //      populating the word -> count map and counting the total words/tokens
-    private void parseContent(String content) {
-        Scanner sc = new Scanner(content);
-        while (sc.hasNext()) {
-            String word = sc.next();
-            if (!wordCounts.containsKey(word)) {
-                wordCounts.put(word, 0);
+    //      populating the sorted feature id and count arrays and counting the total words/tokens
+    private void parseContent(String content, boolean addWords) {
+        WordCounter counter = COUNTERS.get();
+        counter.count(content);
+        totalWords = counter.total();
+
+        // Sort by id, carrying each word's rank along in the low bits
+        long[] packed = new long[counter.distinct()];
+        int[] rankCounts = new int[packed.length];
+        int known = 0;
+        for (int i = 0; i < packed.length; i++) {
+            int id = addWords ? Vocabulary.id(counter.word(i)) : Vocabulary.find(counter.word(i));
+            if (id >= 0) {
+                packed[known] = ((long) id << 32) | i;
+                known++;
             }
-            wordCounts.put(word, wordCounts.get(word) + 1);
-            totalWords++;
+            rankCounts[i] = counter.count(i);
+        }
+        counter.clear();
+        if (known < packed.length) {
+            packed = Arrays.copyOf(packed, known);
+        }
+        Arrays.sort(packed);
+
+        featureIds = new int[packed.length];
+        counts = new int[packed.length];
+        firstSeen = new int[packed.length];
+        for (int i = 0; i < packed.length; i++) {
+            featureIds[i] = (int) (packed[i] >>> 32);
+            firstSeen[i] = (int) packed[i];
+            counts[i] = rankCounts[firstSeen[i]];
         }
     }
 
     // Returns the word probability for the given word.
     // (number of times the word appeared / total number of all words)
     public double get(String word) {
-        if (totalWords != 0 && wordCounts.containsKey(word)) {
-            return wordCounts.get(word) / totalWords;
+        return get(Vocabulary.find(word));
+    }
+
+    // Returns the word probability for the word with the given feature id.
+    public double get(int featureId) {
+        int index = Arrays.binarySearch(featureIds, featureId);
+        if (totalWords != 0 && index >= 0) {
+            return counts[index] / (double) totalWords;
         }
 
         return 0;
     }
-    
+
     // Returns a Set of all valid features for this TextBlock.
-    public Set<String> getFeatures() { return wordCounts.keySet(); }
+    public Set<String> getFeatures() {
+        Set<String> features = new LinkedHashSet<>();
+        for (int id : featureIds) {
+            features.add(Vocabulary.word(id));
+        }
+        return features;
+    }
+
+    // Returns the vocabulary ids of all valid features for this TextBlock, in ascending order.
+    public int[] getFeatureIds() { return featureIds.clone(); }
+
+    // Returns the number of valid features for this TextBlock.
+    public int featureCount() { return featureIds.length; }
+
+    // Returns the vocabulary id of the feature at 'index' of getFeatureIds(), without copying it.
+    public int featureIdAt(int index) { return featureIds[index]; }
+
+    // Returns the word probability of the feature at 'index' of getFeatureIds().
+    public double getAt(int index) { return counts[index] / (double) totalWords; }
 
     // Returns true if TextBlock contains this feature. False otherwise.
-    public boolean containsFeature(String word) { return wordCounts.containsKey(word); }
-    
+    public boolean containsFeature(String word) { return containsFeature(Vocabulary.find(word)); }
+
+    // Returns true if TextBlock contains the feature with this id. False otherwise.
+    public boolean containsFeature(int featureId) {
+        return Arrays.binarySearch(featureIds, featureId) >= 0;
+    }
+
     // Returns a feature that has the greatest difference in word probability between this
     // instance and provided 'other'
     public String findBiggestDifference(TextBlock other) {
-        // Find the word with the largest probability difference between this and other
-        Set<String> allWords = new HashSet<>(this.wordCounts.keySet());
-        allWords.addAll(other.wordCounts.keySet());
+        int featureId = findBiggestDifferenceId(other);
+        return featureId < 0 ? null : Vocabulary.word(featureId);
+    }
 
-        String bestWord = null;
+    // Returns the id of the feature that has the greatest difference in word probability
+    // between this instance and provided 'other', or -1 if there is no difference
+    public int findBiggestDifferenceId(TextBlock other) {
+        // Ties between equally big differences go to the word a HashSet of both blocks' words
+        // would visit first, as when blocks were keyed by String. That order depends on the
+        // set's table size, which is only known once the merge has counted the shared words,
+        // so keep the winner for both table sizes the union can end up with.
+        int smallTable = unionTableSize(Math.max(featureIds.length, other.featureIds.length));
+        int largeTable = unionTableSize(featureIds.length + other.featureIds.length);
+        int bestSmall = -1;
+        int bestLarge = -1;
+        long orderSmall = 0;
+        long orderLarge = 0;
         double highestDiff = 0;
-        for (String word : allWords) {
-            double diff = (this.containsFeature(word) ? this.get(word) : 0) - 
-                          (other.containsFeature(word) ? other.get(word) : 0);
-            diff = Math.abs(diff);
+
+        // Merge the two sorted id arrays, visiting every word of either block once
+        int i = 0;
+        int j = 0;
+        int shared = 0;
+        while (i < featureIds.length || j < other.featureIds.length) {
+            int id;
+            double diff;
+            int hashSetSource;  // 0 if the set would get the word from this block, 1 if other
+            int rank;
+            if (j == other.featureIds.length
+                    || (i < featureIds.length && featureIds[i] < other.featureIds[j])) {
+                id = featureIds[i];
+                diff = Math.abs(probability(i) - 0);
+                hashSetSource = 0;
+                rank = firstSeen[i];
+                i++;
+            } else if (i == featureIds.length || other.featureIds[j] < featureIds[i]) {
+                id = other.featureIds[j];
+                diff = Math.abs(0 - other.probability(j));
+                hashSetSource = 1;
+                rank = other.firstSeen[j];
+                j++;
+            } else {
+                id = featureIds[i];
+                diff = Math.abs(probability(i) - other.probability(j));
+                hashSetSource = 0;
+                rank = firstSeen[i];
+                shared++;
+                i++;
+                j++;
+            }
+
             if (diff > highestDiff) {
-                bestWord = word;
                 highestDiff = diff;
+                bestSmall = id;
+                bestLarge = id;
+                orderSmall = hashSetOrder(id, hashSetSource, rank, smallTable);
+                orderLarge = hashSetOrder(id, hashSetSource, rank, largeTable);
+            } else if (diff == highestDiff && bestSmall >= 0) {
+                long order = hashSetOrder(id, hashSetSource, rank, smallTable);
+                if (order < orderSmall) {
+                    bestSmall = id;
+                    orderSmall = order;
+                }
+                order = hashSetOrder(id, hashSetSource, rank, largeTable);
+                if (order < orderLarge) {
+                    bestLarge = id;
+                    orderLarge = order;
+                }
             }
         }
 
-        return bestWord;
+        int unionSize = featureIds.length + other.featureIds.length - shared;
+        return unionTableSize(unionSize) == smallTable ? bestSmall : bestLarge;
+    }
+
+    // Helper method - returns the word probability of the feature at 'index' of the arrays
+    private double probability(int index) {
+        return counts[index] / (double) totalWords;
+    }
+
+    // Helper method - returns the table size of a HashSet built from this block's words that
+    //      then has the rest of a union of 'unionSize' words added to it
+    private int unionTableSize(int unionSize) {
+        int initialCapacity = Math.max((int) (featureIds.length / .75f) + 1, 16);
+        int tableSize = Integer.highestOneBit(initialCapacity - 1) << 1;
+        while (unionSize > tableSize / 4 * 3) {
+            tableSize *= 2;
+        }
+        return tableSize;
+    }
+
+    // Helper method - returns a key that orders words the way a HashSet with 'tableSize'
+    //      buckets visits them: by bucket, then by when the word was added to the set
+    private static long hashSetOrder(int id, int source, int rank, int tableSize) {
+        int hash = Vocabulary.word(id).hashCode();
+        int bucket = (hash ^ (hash >>> 16)) & (tableSize - 1);
+        return ((long) bucket << 33) | ((long) source << 32) | rank;
     }
 }
@@ -0,0 +1,262 @@
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.function.*;
+
+// Compiles a FlatTree into a hidden class whose single method is the whole tree written out as
+//      nested if/else branches, with each node's feature id and threshold as constants. The
+//      JIT can then compile a tree's decisions into straight-line code with no array reads.
+//      The class file is written by hand, targeting a class file version old enough that the
+//      JVM doesn't need stack map frames for the branches.
+public class TreeCompiler {
+    // Largest method HotSpot will JIT-compile by default (-XX:-DontCompileHugeMethods lifts
+    //      it). Trees that don't fit would only ever be interpreted, so they aren't compiled.
+    public static final int MAX_CODE_LENGTH = 8000;
+
+    private static final int CLASS_FILE_VERSION = 49;
+
+    // Bytecode instructions used by the generated method
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ASTORE_1 = 0x4c;
+    private static final int DCMPG = 0x98;
+    private static final int IFGE = 0x9c;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int CHECKCAST = 0xc0;
+
+    // Constant pool tags
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(constants);
+    private final Map<String, Integer> poolIndexes = new HashMap<>();
+    private int poolSize = 1;       // Constant pool indexes start at 1
+
+    // Returns a function that gives the label code the provided 'tree' assigns to a TextBlock,
+    //      running as a hidden class generated for the tree
+    // 'tree' should be non-null.
+    // Throws an IllegalStateException
+    //      If the tree is too big to compile, or the JVM refuses the generated class
+    public static ToIntFunction<TextBlock> compile(FlatTree tree) {
+        try {
+            byte[] classFile = new TreeCompiler().writeClass(tree);
+            Class<?> compiled = MethodHandles.lookup()
+                                             .defineHiddenClass(classFile, true)
+                                             .lookupClass();
+            @SuppressWarnings("unchecked")
+            ToIntFunction<TextBlock> function =
+                    (ToIntFunction<TextBlock>) compiled.getDeclaredConstructor().newInstance();
+            return function;
+        } catch (ReflectiveOperationException | IOException | LinkageError e) {
+            throw new IllegalStateException("Could not compile tree", e);
+        }
+    }
+
+    // Helper method - returns the bytes of a class file that implements ToIntFunction by
+    //      classifying its argument with 'tree'
+    private byte[] writeClass(FlatTree tree) throws IOException {
+        int thisClass = classConstant("CompiledTree");
+        int superClass = classConstant("java/lang/Object");
+        int function = classConstant("java/util/function/ToIntFunction");
+        int textBlock = classConstant("TextBlock");
+        int objectInit = methodConstant(superClass, "<init>", "()V");
+        int get = methodConstant(textBlock, "get", "(I)D");
+        int initName = utf8Constant("<init>");
+        int initType = utf8Constant("()V");
+        int applyName = utf8Constant("applyAsInt");
+        int applyType = utf8Constant("(Ljava/lang/Object;)I");
+        int codeName = utf8Constant("Code");
+        byte[] applyCode = writeTree(tree, textBlock, get);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(CLASS_FILE_VERSION);
+        out.writeShort(poolSize);
+        constants.writeTo(out);
+        out.writeShort(0x0001 | 0x0010 | 0x0020);      // public final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(function);
+        out.writeShort(0);      // No fields
+        out.writeShort(2);
+
+        // public CompiledTree() { super(); }
+        byte[] initCode = {(byte) ALOAD_0, (byte) INVOKESPECIAL,
+                           (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN};
+        writeMethod(out, initName, initType, codeName, 1, 1, initCode);
+
+        // public int applyAsInt(Object input) { ...the tree... }
+        writeMethod(out, applyName, applyType, codeName, 4, 2, applyCode);
+        out.writeShort(0);      // No class attributes
+        return bytes.toByteArray();
+    }
+
+    // Helper method - returns the bytecode of applyAsInt, which walks 'tree' as nested
+    //      branches. Each decision node becomes
+    //          if (!(input.get(featureId) < threshold)) goto right; <left code> right: <right code>
+    //      and each leaf returns its label code.
+    private byte[] writeTree(FlatTree tree, int textBlock, int get) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bytes);
+        code.writeByte(ALOAD_1);
+        code.writeByte(CHECKCAST);
+        code.writeShort(textBlock);
+        code.writeByte(ASTORE_1);
+
+        // Nodes still to write, each with the position of the branch that jumps to it (or -1)
+        Deque<Integer> toWrite = new ArrayDeque<>();
+        Deque<Integer> jumpsHere = new ArrayDeque<>();
+        toWrite.push(0);
+        jumpsHere.push(-1);
+        List<Integer> branches = new ArrayList<>();
+        List<Integer> targets = new ArrayList<>();
+        while (!toWrite.isEmpty()) {
+            int node = toWrite.pop();
+            int branch = jumpsHere.pop();
+            if (branch >= 0) {
+                branches.add(branch);
+                targets.add(code.size());
+            }
+            if (tree.isLeaf(node)) {
+                pushInt(code, tree.labelCode(node));
+                code.writeByte(IRETURN);
+            } else {
+                code.writeByte(ALOAD_1);
+                pushInt(code, tree.featureId(node));
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(get);
+                code.writeByte(LDC2_W);
+                code.writeShort(doubleConstant(tree.threshold(node)));
+                code.writeByte(DCMPG);
+                toWrite.push(tree.rightChild(node));
+                jumpsHere.push(code.size());
+                code.writeByte(IFGE);
+                code.writeShort(0);     // Filled in once the right child's position is known
+                toWrite.push(tree.leftChild(node));
+                jumpsHere.push(-1);
+            }
+            if (code.size() > MAX_CODE_LENGTH) {
+                throw new IOException("Tree needs more than " + MAX_CODE_LENGTH + " bytes of code");
+            }
+        }
+
+        byte[] result = bytes.toByteArray();
+        for (int i = 0; i < branches.size(); i++) {
+            int offset = targets.get(i) - branches.get(i);
+            result[branches.get(i) + 1] = (byte) (offset >> 8);
+            result[branches.get(i) + 2] = (byte) offset;
+        }
+        return result;
+    }
+
+    // Helper method - writes a method with a single Code attribute
+    private static void writeMethod(DataOutputStream out, int name, int type, int codeName,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(0x0001);     // public
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);      // No exception table
+        out.writeShort(0);      // No code attributes
+    }
+
+    // Helper method - writes the instruction that pushes the int 'value'
+    private void pushInt(DataOutputStream code, int value) throws IOException {
+        if (value >= -1 && value <= 5) {
+            code.writeByte(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.writeByte(BIPUSH);
+            code.writeByte(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.writeByte(SIPUSH);
+            code.writeShort(value);
+        } else {
+            code.writeByte(LDC_W);
+            code.writeShort(intConstant(value));
+        }
+    }
+
+    // Helper methods - return the constant pool index of the given constant, adding it first
+    //      if it isn't in the pool yet
+    private int utf8Constant(String value) throws IOException {
+        String key = "Utf8 " + value;
+        if (!poolIndexes.containsKey(key)) {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+            poolIndexes.put(key, poolSize);
+            poolSize++;
+        }
+        return poolIndexes.get(key);
+    }
+
+    private int classConstant(String name) throws IOException {
+        int nameIndex = utf8Constant(name);
+        String key = "Class " + name;
+        if (!poolIndexes.containsKey(key)) {
+            pool.writeByte(CONSTANT_CLASS);
+            pool.writeShort(nameIndex);
+            poolIndexes.put(key, poolSize);
+            poolSize++;
+        }
+        return poolIndexes.get(key);
+    }
+
+    private int methodConstant(int owner, String name, String type) throws IOException {
+        int nameIndex = utf8Constant(name);
+        int typeIndex = utf8Constant(type);
+        pool.writeByte(CONSTANT_NAME_AND_TYPE);
+        pool.writeShort(nameIndex);
+        pool.writeShort(typeIndex);
+        poolSize++;
+        pool.writeByte(CONSTANT_METHODREF);
+        pool.writeShort(owner);
+        pool.writeShort(poolSize - 1);
+        poolSize++;
+        return poolSize - 1;
+    }
+
+    private int intConstant(int value) throws IOException {
+        String key = "Integer " + value;
+        if (!poolIndexes.containsKey(key)) {
+            pool.writeByte(CONSTANT_INTEGER);
+            pool.writeInt(value);
+            poolIndexes.put(key, poolSize);
+            poolSize++;
+        }
+        return poolIndexes.get(key);
+    }
+
+    private int doubleConstant(double value) throws IOException {
+        long bits = Double.doubleToRawLongBits(value);
+        String key = "Double " + bits;
+        if (!poolIndexes.containsKey(key)) {
+            pool.writeByte(CONSTANT_DOUBLE);
+            pool.writeLong(bits);
+            poolIndexes.put(key, poolSize);
+            poolSize += 2;      // Doubles take two constant pool entries
+        }
+        return poolIndexes.get(key);
+    }
+}
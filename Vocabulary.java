@@ -0,0 +1,60 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Maps every distinct word seen by TextBlocks and Classifiers to a dense int id, so features
+//      can be hashed and compared as ints. Each word is stored once, no matter how many
+//      messages contain it. Words are never removed, so only training data and loaded models
+//      should add words; messages that are only classified should be looked up with find
+//      (see TextBlock). Safe to use from multiple threads at once.
+public class Vocabulary {
+    private static final Map<String, Integer> WORD_TO_ID = new ConcurrentHashMap<>();
+
+    // id -> word. Swapped for a larger copy when full; entries are never changed once set.
+    private static volatile String[] words = new String[1024];
+    private static int size;
+
+    // Returns the id of the provided 'word', adding it to the vocabulary if needed
+    // 'word' should be non-null.
+    public static int id(String word) {
+        Integer id = WORD_TO_ID.get(word);
+        if (id == null) {
+            id = WORD_TO_ID.computeIfAbsent(word, Vocabulary::add);
+        }
+        return id;
+    }
+
+    // Returns the id of the provided 'word', or -1 if the word isn't in the vocabulary
+    public static int find(String word) {
+        if (word == null) {
+            return -1;
+        }
+        Integer id = WORD_TO_ID.get(word);
+        return id == null ? -1 : id;
+    }
+
+    // Returns the word with the provided 'id'
+    // Throws an IllegalArgumentException
+    //      If no word has been given that id
+    public static String word(int id) {
+        String[] current = words;
+        if (id < 0 || id >= current.length || current[id] == null) {
+            throw new IllegalArgumentException("Unknown word id: " + id);
+        }
+        return current[id];
+    }
+
+    // Returns the number of words in the vocabulary
+    public static synchronized int size() {
+        return size;
+    }
+
+    // Helper method - assigns the next id to 'word'. Called at most once per word.
+    private static synchronized int add(String word) {
+        if (size == words.length) {
+            words = Arrays.copyOf(words, size * 2);
+        }
+        words[size] = word;
+        size++;
+        return size - 1;
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.*;
+
+// Splits text into whitespace-separated words, the same words Scanner.next() would return, and
+//      counts how often each distinct word appears. Walks the characters directly instead of
+//      matching regular expressions, and refers to words by their position in the text, so no
+//      Strings are created while counting. A WordCounter reuses its tables from one text to the
+//      next, so it should only be used by one thread at a time.
+public class WordCounter {
+    private CharSequence text;
+    private int distinct;
+    private int total;
+
+    // Open-addressing hash table: slot -> (index of the distinct word + 1), or 0 when empty
+    private int[] slots = new int[64];
+
+    // distinct word index -> where it is in the text, its hash, count and table slot
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private int[] hashes = new int[32];
+    private int[] counts = new int[32];
+    private int[] slotOf = new int[32];
+
+    // Counts the words of the provided 'text', replacing the counts of any previous text.
+    //      Words are numbered in the order they first appear.
+    // 'text' should be non-null.
+    public void count(CharSequence text) {
+        clear();
+        this.text = text;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && isDelimiter(text.charAt(i))) {
+                i++;
+            }
+            if (i < length) {
+                int start = i;
+                int hash = 0;
+                while (i < length && !isDelimiter(text.charAt(i))) {
+                    hash = 31 * hash + text.charAt(i);
+                    i++;
+                }
+                add(start, i, hash);
+            }
+        }
+    }
+
+    // Returns the number of distinct words in the last counted text
+    public int distinct() {
+        return distinct;
+    }
+
+    // Returns the total number of words in the last counted text
+    public int total() {
+        return total;
+    }
+
+    // Returns the 'index'th distinct word of the last counted text
+    public String word(int index) {
+        return text.subSequence(starts[index], ends[index]).toString();
+    }
+
+    // Returns how many times the 'index'th distinct word appeared in the last counted text
+    public int count(int index) {
+        return counts[index];
+    }
+
+    // Forgets the last counted text so it isn't kept reachable by this counter
+    public void clear() {
+        for (int i = 0; i < distinct; i++) {
+            slots[slotOf[i]] = 0;
+        }
+        text = null;
+        distinct = 0;
+        total = 0;
+    }
+
+    // Returns true if 'c' separates words, matching Scanner's default whitespace delimiter
+    public static boolean isDelimiter(char c) {
+        return Character.isWhitespace(c);
+    }
+
+    // Helper method - counts the word found between 'start' and 'end' of the text
+    private void add(int start, int end, int hash) {
+        total++;
+        int mask = slots.length - 1;
+        int slot = spread(hash) & mask;
+        while (slots[slot] != 0) {
+            int index = slots[slot] - 1;
+            if (hashes[index] == hash && sameWord(starts[index], ends[index], start, end)) {
+                counts[index]++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (distinct == starts.length) {
+            int capacity = distinct * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            slotOf = Arrays.copyOf(slotOf, capacity);
+        }
+        starts[distinct] = start;
+        ends[distinct] = end;
+        hashes[distinct] = hash;
+        counts[distinct] = 1;
+        slotOf[distinct] = slot;
+        slots[slot] = distinct + 1;
+        distinct++;
+
+        // Keep the table at most half full
+        if (distinct * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+    }
+
+    // Helper method - moves every distinct word into a new table with 'capacity' slots
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < distinct; i++) {
+            int slot = spread(hashes[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+            slotOf[i] = slot;
+        }
+    }
+
+    // Helper method - returns true if the text holds the same word at both given ranges
+    private boolean sameWord(int start, int end, int otherStart, int otherEnd) {
+        if (end - start != otherEnd - otherStart) {
+            return false;
+        }
+        for (int i = 0; i < end - start; i++) {
+            if (text.charAt(start + i) != text.charAt(otherStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Helper method - mixes the high bits of 'hash' into the low bits used to pick a slot
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}